@@ -361,7 +361,7 @@ public class Parser {
                     IntField f = new IntField(new Integer(zc.getValue()));
                     t.setField(i, f);
                 } else if (zc.getType() == ZConstant.STRING) {
-                    if (td.getFieldType(i) != Type.STRING_TYPE) {
+                    if (!td.getFieldType(i).isString()) {
                         throw new simpledb.ParsingException("Value "
                                 + zc.getValue()
                                 + " is a string, expected an integer.");
@@ -585,6 +585,8 @@ public class Parser {
     static final int SLEEP_TIME = 1000;
 
     protected void shutdown() {
+        // the shutdown checkpoint saves what the next start warms up with
+        Database.getLogFile().shutdown();
         System.out.println("Bye");
     }
 
@@ -594,6 +596,8 @@ public class Parser {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
         TableStats.computeStatistics();
+        // read back the pages cached at the last shutdown while the user types
+        Database.getBufferPool().warmUp(Database.getLogFile().getResidencyFile());
 
         String queryFile = null;
 
@@ -2,6 +2,7 @@ package simpledb.common;
 
 import simpledb.common.Type;
 import simpledb.storage.DbFile;
+import simpledb.storage.CompressedHeapFile;
 import simpledb.storage.HeapFile;
 import simpledb.storage.TupleDesc;
 
@@ -11,6 +12,8 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * The Catalog keeps track of all available tables in the database and their
@@ -33,6 +36,9 @@ public class Catalog {
 
     //建立表的名称到tableid的映射
     private HashMap<String, Integer> name2id;
+
+    //schema文件中的varchar或varchar(n)类型
+    private static final Pattern VARCHAR = Pattern.compile("varchar(?:\\((\\d+)\\))?", Pattern.CASE_INSENSITIVE);
     /**
      * Constructor.
      * Creates a new, empty catalog.
@@ -175,19 +181,34 @@ public class Catalog {
                 //assume line is of the format name (field type, field type, ...)
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
-                String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
+                String fields = line.substring(line.indexOf("(") + 1, line.lastIndexOf(")")).trim();
+                //the field list may be followed by "pax" for a table stored column by column
+                String option = line.substring(line.lastIndexOf(")") + 1).trim();
+                boolean columnar = option.equalsIgnoreCase("pax");
+                if (!columnar && !option.isEmpty()) {
+                    System.out.println("Unknown table option " + option);
+                    System.exit(0);
+                }
                 String[] els = fields.split(",");
                 ArrayList<String> names = new ArrayList<>();
                 ArrayList<Type> types = new ArrayList<>();
+                ArrayList<Integer> lengths = new ArrayList<>();
                 String primaryKey = "";
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
+                    Matcher varchar = VARCHAR.matcher(els2[1].trim());
+                    lengths.add(Type.STRING_LEN);
                     if (els2[1].trim().equalsIgnoreCase("int"))
                         types.add(Type.INT_TYPE);
                     else if (els2[1].trim().equalsIgnoreCase("string"))
                         types.add(Type.STRING_TYPE);
-                    else {
+                    else if (varchar.matches()) {
+                        // varchar(n) holds up to n characters, plain varchar up to STRING_LEN
+                        types.add(Type.VARCHAR_TYPE);
+                        if (varchar.group(1) != null)
+                            lengths.set(lengths.size() - 1, Integer.parseInt(varchar.group(1)));
+                    } else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
@@ -202,8 +223,13 @@ public class Catalog {
                 }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
-                TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                int[] lengthAr = new int[lengths.size()];
+                for (int i = 0; i < lengthAr.length; i++)
+                    lengthAr[i] = lengths.get(i);
+                TupleDesc t = new TupleDesc(typeAr, namesAr, lengthAr);
+                File dataFile = new File(baseFolder+"/"+name + ".dat");
+                HeapFile tabHf = CompressedHeapFile.isCompressed(dataFile)
+                        ? new CompressedHeapFile(dataFile, t, columnar) : new HeapFile(dataFile, t, columnar);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
@@ -18,6 +18,10 @@ import java.util.concurrent.atomic.AtomicReference;
  */
 public class Database {
     private static final AtomicReference<Database> _instance = new AtomicReference<>(new Database());
+
+    static {
+        BufferPool.registerMBean();
+    }
     private final Catalog _catalog;
     private final BufferPool _bufferpool;
 
@@ -58,11 +62,19 @@ public class Database {
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(new BufferPool(pages));
+    }
+
+    /**
+     * Method used for testing -- install the specified buffer pool, e.g. one
+     * created with non-default options, and return it
+     */
+    public static BufferPool resetBufferPool(BufferPool pool) {
         java.lang.reflect.Field bufferPoolF=null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), pool);
         } catch (NoSuchFieldException | IllegalAccessException | IllegalArgumentException | SecurityException e) {
             e.printStackTrace();
         }
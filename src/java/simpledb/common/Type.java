@@ -4,6 +4,7 @@ import simpledb.storage.StringField;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
 
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.io.*;
 
@@ -28,6 +29,11 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            return new IntField(buf.getInt(offset));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -46,10 +52,61 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            int strLen = buf.getInt(offset);
+            byte[] bs = new byte[strLen];
+            ByteBuffer src = buf.duplicate();
+            src.position(offset + 4);
+            src.get(bs);
+            return new StringField(new String(bs), STRING_LEN);
+        }
+    }, VARCHAR_TYPE() {
+        /**
+         * VARCHAR fields take only as many bytes as their value needs, so
+         * this is just the size of the longest value of a VARCHAR field
+         * that does not declare a length.
+         *
+         * @see simpledb.storage.TupleDesc#getFieldMaxLength(int)
+         */
+        @Override
+        public int getLen() {
+            return STRING_LEN+4;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                int strLen = dis.readInt();
+                byte[] bs = new byte[strLen];
+                dis.readFully(bs);
+                return new StringField(new String(bs), Math.max(strLen, STRING_LEN));
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            int strLen = buf.getInt(offset);
+            byte[] bs = new byte[strLen];
+            ByteBuffer src = buf.duplicate();
+            src.position(offset + 4);
+            src.get(bs);
+            return new StringField(new String(bs), Math.max(strLen, STRING_LEN));
+        }
     };
     
     public static final int STRING_LEN = 128;
 
+  /**
+   * @return true if fields of this type are StringFields
+   */
+    public boolean isString() {
+        return this == STRING_TYPE || this == VARCHAR_TYPE;
+    }
+
   /**
    * @return the number of bytes required to store a field of this type.
    */
@@ -64,4 +121,13 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from buf, starting at the specified absolute offset. The position
+   *   of buf is not changed, so buf may be shared between threads.
+   * @param buf The buffer to read from
+   * @param offset The offset of the field in buf
+   */
+    public abstract Field parse(ByteBuffer buf, int offset);
+
 }
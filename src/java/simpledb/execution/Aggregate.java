@@ -45,7 +45,11 @@ public class Aggregate extends Operator {
         this.gfield = gfield;
         this.aop = aop;
         Type gFieldType = gfield == -1?null:child.getTupleDesc().getFieldType(gfield);
-        if(child.getTupleDesc().getFieldType(afield) == Type.STRING_TYPE){
+        if(gFieldType != null && gFieldType.isString()){
+            // StringFields report STRING_TYPE, whether they came from a STRING or a VARCHAR field
+            gFieldType = Type.STRING_TYPE;
+        }
+        if(child.getTupleDesc().getFieldType(afield).isString()){
             aggregator = new StringAggregator(gfield,gFieldType,afield,aop);
         }else{
             aggregator = new IntegerAggregator(gfield,gFieldType,afield,aop);
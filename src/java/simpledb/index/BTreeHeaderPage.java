@@ -71,7 +71,9 @@ public class BTreeHeaderPage implements Page {
 
 		dis.close();
 
-		setBeforeImage();
+		// the image the page was parsed from is its before image; it is
+		// not serialized again until the page is next marked committed
+		oldData = data;
 	}
 
 	/**
@@ -118,7 +120,7 @@ public class BTreeHeaderPage implements Page {
 	public void setBeforeImage() {
 		synchronized(oldDataLock)
 		{
-			oldData = getPageData().clone();
+			oldData = getPageData();
 		}
 	}
 
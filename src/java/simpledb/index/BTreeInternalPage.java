@@ -113,7 +113,9 @@ public class BTreeInternalPage extends BTreePage {
 		}
 		dis.close();
 
-		setBeforeImage();
+		// the image the page was parsed from is its before image; it is
+		// not serialized again until the page is next marked committed
+		oldData = data;
 	}
 
 	/** 
@@ -161,7 +163,7 @@ public class BTreeInternalPage extends BTreePage {
 	public void setBeforeImage() {
 		synchronized(oldDataLock)
 		{
-			oldData = getPageData().clone();
+			oldData = getPageData();
 		}
 	}
 
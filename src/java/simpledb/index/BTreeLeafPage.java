@@ -107,7 +107,9 @@ public class BTreeLeafPage extends BTreePage {
 		}
 		dis.close();
 
-		setBeforeImage();
+		// the image the page was parsed from is its before image; it is
+		// not serialized again until the page is next marked committed
+		oldData = data;
 	}
 
 	/** 
@@ -152,7 +154,7 @@ public class BTreeLeafPage extends BTreePage {
 	public void setBeforeImage() {
 		synchronized(oldDataLock)
 		{
-			oldData = getPageData().clone();
+			oldData = getPageData();
 		}
 	}
 
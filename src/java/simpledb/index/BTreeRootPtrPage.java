@@ -48,11 +48,13 @@ public class BTreeRootPtrPage implements Page {
 		// read in the header pointer
 		header = dis.readInt();
 		
-		setBeforeImage();
+		// the image the page was parsed from is its before image; it is
+		// not serialized again until the page is next marked committed
+		oldData = data;
 	}
 
 	public void setBeforeImage() {
-		oldData = getPageData().clone();
+		oldData = getPageData();
 	}
 
 	/**
@@ -682,11 +682,12 @@ public class BTreeUtility {
 				if(!(e instanceof TransactionAbortedException)) {
 					e.printStackTrace();
 				}
+				// roll back before reporting the error, since a rerun
+				// starts a new transaction in this object
+				Database.getBufferPool().transactionComplete(tid, false);
 				synchronized(elock) {
 					error = e;
 				}
-
-                Database.getBufferPool().transactionComplete(tid, false);
             }
 		}
 		
@@ -777,16 +778,17 @@ public class BTreeUtility {
 				if(!(e instanceof TransactionAbortedException)) {
 					e.printStackTrace();
 				}
-				synchronized(elock) {
-					error = e;
-				}
-
+				// roll back before reporting the error, since a rerun
+				// starts a new transaction in this object
 				try {
 					insertedTuples.put(tuple);
 					Database.getBufferPool().transactionComplete(tid, false);
 				} catch (InterruptedException e2) {
 					e2.printStackTrace();
 				}
+				synchronized(elock) {
+					error = e;
+				}
             }
 		}
 		
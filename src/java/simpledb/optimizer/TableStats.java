@@ -121,7 +121,7 @@ public class TableStats {
                         minMap.put(i, Math.min(minMap.getOrDefault(i, Integer.MAX_VALUE), field.getValue()));
                         //最大值
                         maxMap.put(i, Math.max(maxMap.getOrDefault(i, Integer.MIN_VALUE), field.getValue()));
-                    } else if(td.getFieldType(i).equals(Type.STRING_TYPE)){
+                    } else if(td.getFieldType(i).isString()){
                         StringHistogram histogram = this.strHistograms.getOrDefault(i, new StringHistogram(NUM_HIST_BINS));
                         StringField field = (StringField) tuple.getField(i);
                         histogram.addValue(field.getValue());
@@ -211,7 +211,7 @@ public class TableStats {
         // some code goes here
         if (td.getFieldType(field).equals(Type.INT_TYPE)) {
             return intHistograms.get(field).avgSelectivity();
-        }else if(td.getFieldType(field).equals(Type.STRING_TYPE)){
+        }else if(td.getFieldType(field).isString()){
             return strHistograms.get(field).avgSelectivity();
         }
         return -1.00;
@@ -235,7 +235,7 @@ public class TableStats {
         if (td.getFieldType(field).equals(Type.INT_TYPE)) {
             IntField intField = (IntField) constant;
             return intHistograms.get(field).estimateSelectivity(op,intField.getValue());
-        } else if(td.getFieldType(field).equals(Type.STRING_TYPE)){
+        } else if(td.getFieldType(field).isString()){
             StringField stringField = (StringField) constant;
             return strHistograms.get(field).estimateSelectivity(op,stringField.getValue());
         }
@@ -8,11 +8,33 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Constructor;
 
-import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Queue;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -22,6 +44,14 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * A BufferPool may be split into partitions, each caching the pages whose
+ * ids hash to it with its own share of the frames, eviction policy and
+ * counters, so that threads requesting different pages do not contend on
+ * a single eviction queue. The partitions are BufferPools themselves and
+ * share their pool's locks; the pool hands every page request to the
+ * partition of the page, and operations on a transaction or on all pages
+ * to every partition.
  *
  * @Threadsafe, all fields are final
  */
@@ -36,87 +66,1019 @@ public class BufferPool {
      constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /** Default upper bound on the read-ahead window of sequential scans. */
+    public static final int DEFAULT_READ_AHEAD_PAGES = 8;
+
+    private static volatile int readAheadPages = DEFAULT_READ_AHEAD_PAGES;
+
+    /** Name the BufferPoolMXBean is registered under by {@link #registerMBean()}. */
+    public static final String MBEAN_NAME = "simpledb:type=BufferPool";
+
+    /** Default size of the page rings large sequential scans read through. */
+    public static final int DEFAULT_SCAN_RING_PAGES = 16;
+
+    private static volatile int scanRingPages = DEFAULT_SCAN_RING_PAGES;
+
+    /**
+     * Page replacement policies a BufferPool can be created with. Except
+     * for FIFO they all take hits into account, and LRU_2 and TWO_Q keep
+     * pages that are hit repeatedly in the pool while large scans pass
+     * through it.
+     */
+    public enum Eviction {
+        /** evicts pages in the order they were read in; the default */
+        FIFO,
+        /** second chance: a page is evicted once the clock hand passes it twice without a hit in between */
+        CLOCK,
+        /** LRU-K with K = 2: evicts the page whose second-to-last access is the oldest */
+        LRU_2,
+        /** 2Q: new pages go through a small FIFO queue, pages read again soon after leaving it through an LRU queue */
+        TWO_Q;
+
+        EvictionPolicy create(int numPages) {
+            switch (this) {
+                case CLOCK:
+                    return new ClockEvict();
+                case LRU_2:
+                    return new LRUKEvict(numPages);
+                case TWO_Q:
+                    return new TwoQEvict(numPages);
+                default:
+                    return new FIFOEvict();
+            }
+        }
+    }
+
+    /** Background readers for prefetched pages, shared by all pools. */
+    private static final ExecutorService prefetcher = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors() / 2), r -> {
+                Thread t = new Thread(r, "BufferPool-prefetch");
+                t.setDaemon(true);
+                return t;
+            });
+
     private ConcurrentHashMap<PageId, Page> pages;
-    private int numPages;
+    /** the capacity of the pool, see {@link #resize} */
+    private volatile int numPages;
+    /**
+     * Most pages the pool may hold before a miss fails for want of a clean
+     * page to evict: numPages, or after a shrink the old capacity until the
+     * pool has shrunk to numPages, so that transactions running at the time
+     * have as much room as they had before. Guarded by resizeLock.
+     */
+    private volatile int limit;
+    private final Object resizeLock = new Object();
 
     private EvictionPolicy evictionPolicy;
 
+    // statistics, see BufferPoolStats; LongAdders so that concurrent page
+    // requests do not contend on them
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder flushedPages = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder flushNanos = new LongAdder();
+    private final LongAccumulator maxFlushNanos = new LongAccumulator(Math::max, 0);
+
     private LockManager lockManager;
+    /** The snapshots of read-only transactions and the page images they read. */
+    private final VersionStore versions;
+
+    /** The partitions of this pool, or null if it is not partitioned. */
+    private final BufferPool[] partitions;
+    /**
+     * The pool this is a partition of, or this pool itself. Page writes
+     * synchronize on it, since LogFile keeps them out of checkpoints and
+     * recovery with the monitor of the pool the Database uses.
+     */
+    private final BufferPool owner;
+    /** The index of this partition in its owner, 0 for a whole pool. */
+    private final int partitionIndex;
+
+    /**
+     * Reads in progress, by page, completed when the read is over. The
+     * first thread to miss on a page reads it; other threads asking for
+     * the page meanwhile wait for that read instead of doing their own.
+     * Prefetches register here too.
+     */
+    private final ConcurrentHashMap<PageId, CompletableFuture<Void>> loading = new ConcurrentHashMap<>();
+    /**
+     * Bumped whenever a page is written or discarded, so a prefetch that
+     * read a page from disk can tell that its copy may have gone stale.
+     */
+    private final AtomicLong writeEpoch = new AtomicLong();
+
+    /**
+     * Pin counts and latches of cached pages, created when a page is first
+     * pinned and dropped with the page when it leaves the pool unpinned.
+     */
+    private final ConcurrentHashMap<PageId, PageLatch> latches = new ConcurrentHashMap<>();
+
+    /** Off-heap frames for the images of cached HeapPages, or null. */
+    private final PageFrameArena arena;
+
+    /** How often an idle page cleaner checks the pool, in milliseconds. */
+    private static final long CLEANER_INTERVAL_MS = 100;
+
+    /** The background page cleaner, or null if it is not running. */
+    private volatile Thread cleaner;
+    /** Fraction of the pool the page cleaner keeps clean. */
+    private volatile double cleanFraction;
+    /** Monitor the page cleaner sleeps on between rounds. */
+    private final Object cleanerSignal = new Object();
+    /** Pages written by the page cleaner or by eviction on its behalf. */
+    private final LongAdder cleanedPages = new LongAdder();
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     */
+    public BufferPool(int numPages) {
+        this(numPages, Eviction.FIFO, false);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, replacing them
+     * according to the specified policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param eviction the page replacement policy
+     */
+    public BufferPool(int numPages, Eviction eviction) {
+        this(numPages, eviction, false);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, optionally
+     * off-heap.
+     *
+     * @see #BufferPool(int, Eviction, boolean)
+     */
+    public BufferPool(int numPages, boolean offHeap) {
+        this(numPages, Eviction.FIFO, offHeap);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, optionally
+     * reading the images of HeapFile pages into an arena of numPages
+     * direct (off-heap) frames allocated up front. Large off-heap pools
+     * keep cached pages out of the garbage collector's way; they need
+     * -XX:MaxDirectMemorySize to be at least numPages * getPageSize().
+     * <p>
+     * A page dropped from the pool moves its image back onto the heap
+     * before its frame is reused, so operators still holding the page or
+     * its tuples keep reading the right bytes. Pages read while every
+     * frame is taken, and pages of other kinds of files, live on the heap.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param eviction the page replacement policy
+     * @param offHeap true to keep HeapPage images in off-heap frames
+     */
+    public BufferPool(int numPages, Eviction eviction, boolean offHeap) {
+        this(numPages, eviction, offHeap, 1);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages in the
+     * specified number of partitions, which split the pages between them
+     * by the hash of their ids. Each partition has its own eviction
+     * policy, and off-heap arena if offHeap is true, for its share of the
+     * pages.
+     * <p>
+     * A partition evicts only its own pages, so a partitioned pool runs
+     * out of clean pages to evict somewhat sooner than a whole pool of
+     * the same size.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param eviction the page replacement policy of every partition
+     * @param offHeap true to keep HeapPage images in off-heap frames
+     * @param partitions the number of partitions, between 1 and numPages
+     */
+    public BufferPool(int numPages, Eviction eviction, boolean offHeap, int partitions) {
+        // some code goes here
+        if (partitions < 1 || partitions > numPages) {
+            throw new IllegalArgumentException("cannot split " + numPages + " pages into " + partitions + " partitions");
+        }
+        this.pages = new ConcurrentHashMap<>();
+        this.numPages = numPages;
+        this.limit = numPages;
+        this.lockManager = new LockManager();
+        this.versions = new VersionStore();
+        this.owner = this;
+        this.partitionIndex = 0;
+        if (partitions == 1) {
+            this.partitions = null;
+            this.evictionPolicy = new BufferedAccessPolicy(eviction.create(numPages));
+            this.arena = offHeap ? new PageFrameArena(numPages, pageSize) : null;
+        } else {
+            this.partitions = new BufferPool[partitions];
+            for (int i = 0; i < partitions; i++) {
+                this.partitions[i] = new BufferPool(this, i, share(numPages, i), eviction, offHeap);
+            }
+            this.evictionPolicy = null;
+            this.arena = null;
+        }
+    }
+
+    /**
+     * Creates partition index of owner, caching up to numPages pages.
+     */
+    private BufferPool(BufferPool owner, int index, int numPages, Eviction eviction, boolean offHeap) {
+        this.pages = new ConcurrentHashMap<>();
+        this.numPages = numPages;
+        this.limit = numPages;
+        this.evictionPolicy = new BufferedAccessPolicy(eviction.create(numPages));
+        this.lockManager = owner.lockManager;
+        this.versions = owner.versions;
+        this.arena = offHeap ? new PageFrameArena(numPages, pageSize) : null;
+        this.partitions = null;
+        this.owner = owner;
+        this.partitionIndex = index;
+    }
+
+    /**
+     * @return the number of pages of a pool of numPages pages that the
+     *         partition index caches
+     */
+    private int share(int numPages, int index) {
+        return numPages / partitions.length + (index < numPages % partitions.length ? 1 : 0);
+    }
+
+    /**
+     * @return the partition that caches the specified page, or this pool
+     *         if it is not partitioned
+     */
+    private BufferPool partition(PageId pid) {
+        if (partitions == null) {
+            return this;
+        }
+        // page ids hash into few distinct low bits (a HeapPageId's hash
+        // steps by 1000 per page), so spread the hash before reducing it
+        long h = pid.hashCode() * 0x9E3779B97F4A7C15L;
+        return partitions[Math.floorMod((int) (h >>> 32), partitions.length)];
+    }
+
+    /**
+     * @return the partitions of this pool, or this pool alone if it is not
+     *         partitioned
+     */
+    private List<BufferPool> partitions() {
+        return partitions == null ? Collections.singletonList(this) : Arrays.asList(partitions);
+    }
+
+    /**
+     * @return the number of partitions of this pool, 1 if it is not
+     *         partitioned
+     */
+    public int getPartitionCount() {
+        return partitions == null ? 1 : partitions.length;
+    }
+
+    public static int getPageSize() {
+        return pageSize;
+    }
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    public static void setPageSize(int pageSize) {
+        BufferPool.pageSize = pageSize;
+    }
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    public static void resetPageSize() {
+        BufferPool.pageSize = DEFAULT_PAGE_SIZE;
+    }
+
+    /**
+     * @return the largest number of pages a sequential scan may read ahead
+     */
+    public static int getReadAheadPages() {
+        return readAheadPages;
+    }
+
+    /**
+     * Sets the largest number of pages a sequential scan may read ahead of
+     * its current page; 0 disables read-ahead.
+     */
+    public static void setReadAheadPages(int readAheadPages) {
+        BufferPool.readAheadPages = Math.max(0, readAheadPages);
+    }
+
+    /**
+     * @return the largest number of pages a large sequential scan keeps in
+     *         the pool
+     */
+    public static int getScanRingPages() {
+        return scanRingPages;
+    }
+
+    /**
+     * Sets the size of the page ring a sequential scan of a table larger
+     * than the pool reads through; 0 makes such scans read through the
+     * whole pool like any other access.
+     */
+    public static void setScanRingPages(int scanRingPages) {
+        BufferPool.scanRingPages = Math.max(0, scanRingPages);
+    }
+
+    /**
+     * Returns a ring for a sequential scan of a table of tablePages pages
+     * to read through, if the table does not fit in the pool, so that the
+     * scan would otherwise push the whole pool out without ever getting
+     * to reuse its own pages. The ring holds at most an eighth of the pool.
+     *
+     * @return the ring, or null if the scan should use the whole pool
+     */
+    ScanRing newScanRing(int tablePages) {
+        int size = Math.min(scanRingPages, numPages / 8);
+        if (size <= 0 || tablePages <= numPages) {
+            return null;
+        }
+        // every partition gets its share of the ring
+        int n = getPartitionCount();
+        return new ScanRing(Math.max(1, size / n), n);
+    }
+
+    /**
+     * @return the maximum number of pages this buffer pool caches
+     */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /**
+     * Changes the number of pages this buffer pool caches, while it is in
+     * use. Growing takes effect at once. Shrinking evicts the clean pages
+     * beyond the new capacity right away; dirty pages cannot leave the pool
+     * before they are written, so the pool keeps them and shrinks further
+     * as their transactions commit or the page cleaner writes them. Until
+     * then, transactions may still use as many pages as the pool held
+     * before the shrink, and no cached page is dropped without being
+     * evicted in the usual way.
+     * <p>
+     * An off-heap pool keeps the arena it was created with: pages beyond
+     * its frames are read onto the heap, and frames stay allocated after a
+     * shrink. A partitioned pool resizes every partition to its share of
+     * the new capacity.
+     *
+     * @param numPages the new maximum number of pages, at least 1 and at
+     *                 least the number of partitions
+     */
+    public void resize(int numPages) {
+        if (numPages < getPartitionCount()) {
+            throw new IllegalArgumentException("a BufferPool of " + getPartitionCount()
+                    + " partitions holds at least as many pages, not " + numPages);
+        }
+        if (partitions != null) {
+            this.numPages = numPages;
+            this.limit = numPages;
+            for (int i = 0; i < partitions.length; i++) {
+                partitions[i].resize(share(numPages, i));
+            }
+            return;
+        }
+        synchronized (resizeLock) {
+            limit = Math.max(limit, numPages);
+            this.numPages = numPages;
+            evictionPolicy.resize(numPages);
+        }
+        trim();
+        wakeCleaner();
+    }
+
+    /**
+     * Evicts clean pages while the pool holds more pages than its capacity,
+     * after a shrink, and lifts the allowance the shrink left once the
+     * pool is down to its capacity.
+     */
+    private void trim() {
+        while (pages.size() > numPages && evictCleanPage()) {
+        }
+        if (limit != numPages) {
+            synchronized (resizeLock) {
+                if (pages.size() <= numPages) {
+                    limit = numPages;
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes room in a full pool for one more page: evicts a clean page,
+     * or, while a shrink is still in progress, lets the pool use the
+     * room it had before.
+     *
+     * @throws DbException if the pool is full of dirty pages
+     */
+    private void makeRoom() throws DbException {
+        trim();
+        if (pages.size() >= numPages && !evictCleanPage() && pages.size() >= limit) {
+            evictPage();
+        }
+    }
+
+    /**
+     * @return true if the specified page is currently cached by this pool
+     */
+    public boolean isResident(PageId pid) {
+        if (partitions != null) {
+            return partition(pid).isResident(pid);
+        }
+        return pages.containsKey(pid);
+    }
+
+    /**
+     * Asynchronously reads the specified page into the buffer pool, if it
+     * is not already there. No lock is taken: the page is installed only
+     * if it is still not resident and no page has been written or
+     * dropped while it was read, so the cached copy always matches the
+     * last committed state on disk. Prefetching never evicts a dirty page
+     * and silently gives up if there is no room.
+     */
+    public void prefetchPage(PageId pid) {
+        if (partitions != null) {
+            partition(pid).prefetchPage(pid);
+            return;
+        }
+        if (pages.containsKey(pid)) {
+            return;
+        }
+        CompletableFuture<Void> read = new CompletableFuture<>();
+        if (loading.putIfAbsent(pid, read) != null) {
+            return;
+        }
+        long epoch = writeEpoch.get();
+        try {
+            prefetcher.execute(() -> {
+                try {
+                    installPrefetched(loadPage(pid), epoch);
+                } catch (RuntimeException e) {
+                    // the page went away or the table was dropped; nothing to prefetch
+                } finally {
+                    readDone(pid, read);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            readDone(pid, read);
+        }
+    }
+
+    /**
+     * Writes the ids of the pages this pool caches to f, for
+     * {@link #warmUp} to read them back in after a restart. The file holds
+     * the page size followed by the number of pages and, for every page,
+     * the class of its id and the integers of {@link PageId#serialize}.
+     *
+     * @return the number of pages written
+     */
+    public int saveResidency(File f) throws IOException {
+        List<PageId> resident = new ArrayList<>();
+        for (BufferPool p : partitions()) {
+            resident.addAll(p.pages.keySet());
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)))) {
+            out.writeInt(pageSize);
+            out.writeInt(resident.size());
+            for (PageId pid : resident) {
+                int[] data = pid.serialize();
+                out.writeUTF(pid.getClass().getName());
+                out.writeInt(data.length);
+                for (int d : data) {
+                    out.writeInt(d);
+                }
+            }
+        }
+        return resident.size();
+    }
+
+    /**
+     * Starts reading the pages listed in f by {@link #saveResidency} back
+     * into this pool, so that a restarted database does not serve its first
+     * queries from a cold cache. The pages are prefetched in the background
+     * by table and page number, with several reads in flight, and this
+     * method returns without waiting for them. Like any prefetch, warming
+     * up takes no locks and never evicts a dirty page; pages of tables that
+     * are no longer in the catalog are skipped, and at most as many pages
+     * as the pool holds are read.
+     *
+     * @return the number of pages queued for reading, 0 if f does not exist
+     *         or was written with another page size
+     */
+    public int warmUp(File f) throws IOException {
+        if (!f.exists()) {
+            return 0;
+        }
+        List<PageId> saved = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            if (in.readInt() != pageSize) {
+                return 0;
+            }
+            for (int n = in.readInt(); n > 0; n--) {
+                String idClassName = in.readUTF();
+                int[] data = new int[in.readInt()];
+                for (int i = 0; i < data.length; i++) {
+                    data[i] = in.readInt();
+                }
+                PageId pid = toPageId(idClassName, data);
+                if (pid != null && isTable(pid.getTableId())) {
+                    saved.add(pid);
+                }
+            }
+        } catch (EOFException e) {
+            // a truncated file; warm up with what it lists
+        }
+        saved.sort(Comparator.comparingInt(PageId::getTableId).thenComparingInt(PageId::getPageNumber));
+        int queued = Math.min(saved.size(), numPages);
+        for (PageId pid : saved.subList(0, queued)) {
+            prefetchPage(pid);
+        }
+        return queued;
+    }
+
+    private static boolean isTable(int tableId) {
+        try {
+            Database.getCatalog().getDatabaseFile(tableId);
+            return true;
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Rebuilds a page id written by {@link #saveResidency}, with the
+     * constructor of its class that takes one int per serialized integer.
+     *
+     * @return the page id, or null if it cannot be rebuilt
+     */
+    private static PageId toPageId(String idClassName, int[] data) {
+        try {
+            Class<?> idClass = Class.forName(idClassName);
+            for (Constructor<?> c : idClass.getDeclaredConstructors()) {
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length == data.length && Arrays.stream(params).allMatch(t -> t == int.class)) {
+                    Object[] args = Arrays.stream(data).boxed().toArray();
+                    return (PageId) c.newInstance(args);
+                }
+            }
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            // not a page id of this version of the code
+        }
+        return null;
+    }
+
+    private void installPrefetched(Page page, long epoch) {
+        PageId pid = page.getId();
+        if (epoch != writeEpoch.get() || pages.containsKey(pid)) {
+            releaseFrame(page);
+            return;
+        }
+        if (pages.size() >= numPages) {
+            try {
+                makeRoom();
+            } catch (DbException e) {
+                releaseFrame(page);
+                return;
+            }
+        }
+        Page installed = pages.compute(pid, (k, cur) -> {
+            if (cur != null || epoch != writeEpoch.get()) {
+                return cur;
+            }
+            evictionPolicy.addPage(k);
+            return page;
+        });
+        if (installed != page) {
+            releaseFrame(page);
+        }
+    }
+
+    private void readDone(PageId pid, CompletableFuture<Void> read) {
+        loading.remove(pid, read);
+        read.complete(null);
+    }
+
+    /**
+     * Reads the specified page from its file, into a free off-heap frame
+     * if this pool has an arena and the page is a HeapPage.
+     */
+    private Page loadPage(PageId pid) {
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        if (arena != null && file instanceof HeapFile && pid instanceof HeapPageId
+                && arena.getPageSize() == pageSize) {
+            int frame = arena.acquire();
+            if (frame >= 0) {
+                try {
+                    HeapPage page = ((HeapFile) file).readPage((HeapPageId) pid, arena.frame(frame));
+                    page.setFrame(frame);
+                    return page;
+                } catch (RuntimeException e) {
+                    arena.release(frame);
+                    throw e;
+                }
+            }
+        }
+        return file.readPage(pid);
+    }
+
+    /**
+     * Gives the frame of a page that is no longer cached back to the arena,
+     * after moving the page's image onto the heap.
+     */
+    private void releaseFrame(Page page) {
+        if (arena != null && page instanceof HeapPage) {
+            int frame = ((HeapPage) page).leaveFrame();
+            if (frame >= 0) {
+                arena.release(frame);
+            }
+        }
+    }
+
+    /**
+     * Retrieve the specified page with the associated permissions.
+     * Will acquire a lock and may block if that lock is held by another
+     * transaction.
+     * <p>
+     * The retrieved page should be looked up in the buffer pool.  If it
+     * is present, it should be returned.  If it is not present, it should
+     * be added to the buffer pool and returned.  If there is insufficient
+     * space in the buffer pool, a page should be evicted and the new page
+     * should be added in its place.
+     * <p>
+     * A read-only transaction started with {@link #beginSnapshot} gets a
+     * copy of the page as its snapshot sees it, without a lock.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     */
+    public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        // some code goes here
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieves the specified page like {@link #getPage(TransactionId,
+     * PageId, Permissions)}, but if the page has to be read from disk and
+     * ring is not null, the page takes the place of the oldest page read
+     * through the ring rather than one chosen by the eviction policy.
+     *
+     * @param ring the scan's page ring, or null to use the whole pool
+     */
+    Page getPage(TransactionId tid, PageId pid, Permissions perm, ScanRing ring)
+            throws TransactionAbortedException, DbException {
+        if (partitions != null) {
+            return partition(pid).getPage(tid, pid, perm, ring);
+        }
+        if (versions.isSnapshot(tid)) {
+            return readSnapshot(tid, pid, perm, ring);
+        }
+        acquireLock(tid, pid, perm);
+        return cachedPage(pid, ring);
+    }
+
+    /**
+     * Returns the cached page, reading it in first if it is not resident.
+     */
+    private Page cachedPage(PageId pid, ScanRing ring) throws DbException {
+        while (true) {
+            Page cached = pages.get(pid);
+            if (cached != null) {
+                hit(pid);
+                return cached;
+            }
+            CompletableFuture<Void> read = new CompletableFuture<>();
+            CompletableFuture<Void> pending = loading.putIfAbsent(pid, read);
+            if (pending != null) {
+                // another thread is reading the page; look again once it is done
+                pending.join();
+                continue;
+            }
+            try {
+                return readIn(pid, ring);
+            } finally {
+                readDone(pid, read);
+            }
+        }
+    }
+
+    /**
+     * Reads a page that is not resident into the pool, making room for it
+     * first. The caller must have registered the read in {@link #loading}.
+     */
+    private Page readIn(PageId pid, ScanRing ring) throws DbException {
+        // a read that completed after our lookup may have installed the page
+        Page cached = pages.get(pid);
+        if (cached != null) {
+            hit(pid);
+            return cached;
+        }
+        misses.increment();
+        if (ring != null && ring.victim(partitionIndex) != null) {
+            // the ring's oldest page makes room, unless it was dirtied,
+            // pinned or already evicted, in which case the pool makes room
+            // as usual
+            if (dropPage(ring.victim(partitionIndex), this::isEvictable) != null) {
+                evictions.increment();
+            }
+        }
+        if (pages.size() >= numPages) {
+            makeRoom();
+            wakeCleaner();
+        }
+        Page page = loadPage(pid);
+        Page installed = pages.compute(pid, (k, cur) -> {
+            if (cur != null) {
+                return cur;
+            }
+            evictionPolicy.addPage(k);
+            return page;
+        });
+        if (installed != page) {
+            releaseFrame(page);
+        } else if (ring != null) {
+            ring.add(partitionIndex, pid);
+        }
+        return installed;
+    }
+
+    /**
+     * Reads a page as the snapshot of a read-only transaction sees it,
+     * without a lock.
+     *
+     * @throws DbException if the transaction asks to write the page
+     */
+    private Page readSnapshot(TransactionId tid, PageId pid, Permissions perm, ScanRing ring)
+            throws TransactionAbortedException, DbException {
+        if (perm != Permissions.READ_ONLY) {
+            throw new DbException("read-only transaction " + tid.getId() + " cannot write page " + pid);
+        }
+        try {
+            return versions.read(tid, cachedPage(pid, ring));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransactionAbortedException();
+        }
+    }
+
+    /**
+     * Acquires the lock on the specified page like {@link #getPage}, but
+     * only returns the page if it is already resident in the buffer pool;
+     * a missing page is not read from disk and nothing is evicted.
+     * Used by scans that read clean pages from somewhere other than the
+     * pool (e.g. a memory-mapped file) and must still honor 2PL and see
+     * any cached, possibly dirty, version of the page.
+     *
+     * @return the cached page, or null if the page is not resident
+     */
+    public Page getPageIfResident(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        if (partitions != null) {
+            return partition(pid).getPageIfResident(tid, pid, perm);
+        }
+        if (versions.isSnapshot(tid)) {
+            return pages.containsKey(pid) ? readSnapshot(tid, pid, perm, null) : null;
+        }
+        acquireLock(tid, pid, perm);
+        Page cached = pages.get(pid);
+        if (cached != null) {
+            hit(pid);
+        }
+        return cached;
+    }
+
+    /**
+     * Pins a page this pool returned, so that it is not evicted until it is
+     * unpinned, and with an off-heap pool so that its frame is not handed
+     * to another page. Pins are counted: a page pinned twice needs two
+     * calls to {@link #unpinPage}. Pages are pinned for as long as their
+     * contents are used, not for the rest of the transaction.
+     *
+     * @param page a page returned by one of the getPage methods
+     * @return false if the page is no longer cached, because it was
+     *         evicted or replaced meanwhile, in which case it is not pinned
+     *         and the caller should ask the pool for the page again
+     */
+    public boolean pinPage(Page page) {
+        if (partitions != null) {
+            return partition(page.getId()).pinPage(page);
+        }
+        boolean[] pinned = new boolean[1];
+        // under the map's lock on the page, like the check in dropPage, so
+        // that the page cannot be evicted between the two
+        pages.computeIfPresent(page.getId(), (k, cur) -> {
+            if (cur == page) {
+                latches.computeIfAbsent(k, x -> new PageLatch()).pins.incrementAndGet();
+                pinned[0] = true;
+            }
+            return cur;
+        });
+        return pinned[0];
+    }
+
+    /**
+     * Retrieves the specified page like {@link #getPage} and pins it.
+     *
+     * @throws DbException if tid reads a snapshot, whose pages are copies
+     *         that cannot be pinned
+     */
+    public Page getPinnedPage(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        if (versions.isSnapshot(tid)) {
+            throw new DbException("pages of read-only transaction " + tid.getId() + " cannot be pinned");
+        }
+        while (true) {
+            Page page = getPage(tid, pid, perm);
+            if (pinPage(page)) {
+                return page;
+            }
+        }
+    }
+
+    /**
+     * Releases a pin taken by {@link #pinPage}.
+     *
+     * @throws IllegalStateException if the page is not pinned
+     */
+    public void unpinPage(PageId pid) {
+        if (partitions != null) {
+            partition(pid).unpinPage(pid);
+            return;
+        }
+        PageLatch l = latches.get(pid);
+        if (l == null || l.pins.getAndUpdate(n -> Math.max(0, n - 1)) == 0) {
+            throw new IllegalStateException("page " + pid + " is not pinned");
+        }
+    }
+
+    /**
+     * @return the number of pins held on the specified page
+     */
+    public int getPinCount(PageId pid) {
+        if (partitions != null) {
+            return partition(pid).getPinCount(pid);
+        }
+        PageLatch l = latches.get(pid);
+        return l == null ? 0 : l.pins.get();
+    }
+
+    private boolean isPinned(PageId pid) {
+        PageLatch l = latches.get(pid);
+        return l != null && l.pins.get() > 0;
+    }
+
+    /**
+     * Latches a pinned page, shared for READ_ONLY and exclusive for
+     * READ_WRITE, waiting for conflicting latches to be released. Latches
+     * protect a page's contents while they are read or changed and are
+     * released right after, with {@link #unlatchPage}; the caller must
+     * not ask the pool for other pages while holding one.
+     *
+     * @throws IllegalStateException if the page is not pinned
+     */
+    public void latchPage(PageId pid, Permissions perm) {
+        if (partitions != null) {
+            partition(pid).latchPage(pid, perm);
+            return;
+        }
+        PageLatch l = latches.get(pid);
+        if (l == null || l.pins.get() == 0) {
+            throw new IllegalStateException("page " + pid + " must be pinned to be latched");
+        }
+        if (perm == Permissions.READ_WRITE) {
+            l.latch.writeLock().lock();
+        } else {
+            l.latch.readLock().lock();
+        }
+    }
+
+    /**
+     * Releases a latch taken by {@link #latchPage} with the same
+     * permissions.
+     */
+    public void unlatchPage(PageId pid, Permissions perm) {
+        if (partitions != null) {
+            partition(pid).unlatchPage(pid, perm);
+            return;
+        }
+        PageLatch l = latches.get(pid);
+        if (l == null) {
+            throw new IllegalStateException("page " + pid + " is not latched");
+        }
+        if (perm == Permissions.READ_WRITE) {
+            l.latch.writeLock().unlock();
+        } else {
+            l.latch.readLock().unlock();
+        }
+    }
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
-     *
-     * @param numPages maximum number of pages in this buffer pool.
+     * @return true if page may be evicted: it is clean and not pinned
      */
-    public BufferPool(int numPages) {
-        // some code goes here
-        this.pages = new ConcurrentHashMap<>();
-        this.numPages = numPages;
-        this.evictionPolicy = new FIFOEvict();
-        this.lockManager = new LockManager();
+    private boolean isEvictable(Page page) {
+        return page.isDirty() == null && !isPinned(page.getId());
     }
 
-    public static int getPageSize() {
-        return pageSize;
+    private void hit(PageId pid) {
+        hits.increment();
+        evictionPolicy.pageAccessed(pid);
     }
 
-    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
-    public static void setPageSize(int pageSize) {
-        BufferPool.pageSize = pageSize;
+    /**
+     * @return the number of page requests so far that found the page in the
+     *         pool
+     */
+    public long getHitCount() {
+        return partitions().stream().mapToLong(p -> p.hits.sum()).sum();
     }
 
-    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
-    public static void resetPageSize() {
-        BufferPool.pageSize = DEFAULT_PAGE_SIZE;
+    /**
+     * @return the number of page requests so far that read the page from
+     *         disk
+     */
+    public long getMissCount() {
+        return partitions().stream().mapToLong(p -> p.misses.sum()).sum();
     }
 
     /**
-     * Retrieve the specified page with the associated permissions.
-     * Will acquire a lock and may block if that lock is held by another
-     * transaction.
-     * <p>
-     * The retrieved page should be looked up in the buffer pool.  If it
-     * is present, it should be returned.  If it is not present, it should
-     * be added to the buffer pool and returned.  If there is insufficient
-     * space in the buffer pool, a page should be evicted and the new page
-     * should be added in its place.
-     *
-     * @param tid the ID of the transaction requesting the page
-     * @param pid the ID of the requested page
-     * @param perm the requested permissions on the page
+     * Takes a snapshot of this pool's statistics. The counters are read
+     * without stopping page requests; the dirty and per-table page counts
+     * take a pass over the pool. The statistics of a partitioned pool add
+     * up those of its partitions.
      */
-    public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
-            throws TransactionAbortedException, DbException {
-        // some code goes here
-        int lockType = perm == Permissions.READ_ONLY ? PageLock.SHARE : PageLock.EXCLUSIVE;
-        long startTime = System.currentTimeMillis();
-        while(true) {
-            try {
-                if (lockManager.acquireLock(pid, tid, lockType)) {
-                    break;
-                }
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-            if(System.currentTimeMillis() - startTime > 3000) {
-                throw new TransactionAbortedException();
+    public BufferPoolStats stats() {
+        if (partitions != null) {
+            return BufferPoolStats.combine(numPages, partitionStats());
+        }
+        int resident = 0;
+        int dirty = 0;
+        Map<Integer, Integer> byTable = new TreeMap<>();
+        for (Page page : pages.values()) {
+            resident++;
+            if (page.isDirty() != null) {
+                dirty++;
             }
+            byTable.merge(page.getId().getTableId(), 1, Integer::sum);
+        }
+        return new BufferPoolStats(numPages, resident, dirty, byTable,
+                hits.sum(), misses.sum(), evictions.sum(),
+                flushedPages.sum(), flushes.sum(), flushNanos.sum(),
+                maxFlushNanos.get(), cleanedPages.sum());
+    }
 
+    /**
+     * Takes a snapshot of the statistics of every partition of this pool,
+     * in partition order; a pool that is not partitioned is its only
+     * partition.
+     */
+    public List<BufferPoolStats> partitionStats() {
+        if (partitions == null) {
+            return Collections.singletonList(stats());
         }
-//        if(!lockManager.acquireLock(pid, tid, lockType)) {
-//            throw new TransactionAbortedException();
-//        }
+        List<BufferPoolStats> stats = new ArrayList<>();
+        for (BufferPool p : partitions) {
+            stats.add(p.stats());
+        }
+        return stats;
+    }
 
-        if (pages.containsKey(pid)) {
-            return pages.get(pid);
+    /**
+     * Registers a {@link BufferPoolMXBean} for the pool the Database uses
+     * with the platform MBean server, under {@link #MBEAN_NAME}, unless
+     * one is registered already. Called when the Database is set up.
+     */
+    public static void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    new BufferPoolMonitor(), new ObjectName(MBEAN_NAME));
+        } catch (InstanceAlreadyExistsException e) {
+            // registered by an earlier Database instance
+        } catch (JMException e) {
+            e.printStackTrace();
         }
-        if (pages.size() >= numPages) {
-            evictPage();
+    }
+
+    /**
+     * Adds a write of the specified number of pages, which took nanos
+     * nanoseconds including forcing the log, to the statistics.
+     */
+    private void recordFlush(int pageCount, long nanos) {
+        flushes.increment();
+        flushedPages.add(pageCount);
+        flushNanos.add(nanos);
+        maxFlushNanos.accumulate(nanos);
+    }
+
+    private void acquireLock(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
+        int lockType = perm == Permissions.READ_ONLY ? PageLock.SHARE : PageLock.EXCLUSIVE;
+        try {
+            lockManager.acquireLock(pid, tid, lockType);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransactionAbortedException();
         }
-        Page page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-        pages.put(pid, page);
-        evictionPolicy.addPage(pid);
-        return page;
     }
 
     /**
@@ -134,6 +1096,26 @@ public class BufferPool {
         lockManager.releaseLock(pid, tid);
     }
 
+    /**
+     * Starts tid as a read-only transaction, which reads a consistent
+     * snapshot of the database: the pages as the transactions that
+     * committed before it started left them. It takes no locks, so it
+     * neither waits for writers nor holds them up, and it may not write.
+     * The snapshot ends when the transaction completes.
+     * <p>
+     * Snapshots read the committed images of cached pages, so they rely on
+     * uncommitted changes staying in the pool; they should not be used
+     * with the page cleaner running.
+     */
+    public void beginSnapshot(TransactionId tid) {
+        versions.beginSnapshot(tid);
+    }
+
+    /** @return true if tid is a read-only transaction reading a snapshot */
+    public boolean readsSnapshot(TransactionId tid) {
+        return versions.isSnapshot(tid);
+    }
+
     /**
      * Release all locks associated with a given transaction.
      *
@@ -142,7 +1124,6 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid) {
         // some code goes here
         // not necessary for lab1|lab2
-        lockManager.completeTransaction(tid);
         transactionComplete(tid, true);
     }
 
@@ -150,7 +1131,7 @@ public class BufferPool {
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
         // not necessary for lab1|lab2
-        return false;
+        return lockManager.holdsLock(p, tid);
     }
 
     /**
@@ -163,6 +1144,10 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid, boolean commit) {
         // some code goes here
         // not necessary for lab1|lab2
+        if (versions.endSnapshot(tid)) {
+            // a read-only transaction holds no locks and wrote nothing
+            return;
+        }
         if(commit) {
             try {
                 flushPages(tid);
@@ -171,20 +1156,33 @@ public class BufferPool {
             }
         }
         else {
-            restorePage(tid);
+            for (BufferPool p : partitions()) {
+                p.restorePage(tid);
+            }
         }
         lockManager.completeTransaction(tid);
+        // the pages tid kept dirty can go now, if a shrink is waiting for them
+        for (BufferPool p : partitions()) {
+            p.trim();
+        }
     }
 
-    private synchronized void restorePage(TransactionId tid) {
-        for(PageId pid : pages.keySet()) {
-            Page page = pages.get(pid);
-            if(page.isDirty() == tid) {
-                int tableId = pid.getTableId();
-                DbFile table = Database.getCatalog().getDatabaseFile(tableId);
-                Page restorePage = table.readPage(pid);
-                pages.put(pid, restorePage);
-//                evictionPolicy.addPage(pid);
+    private void restorePage(TransactionId tid) {
+        writeEpoch.incrementAndGet();
+        for(Map.Entry<PageId, Page> entry : pages.entrySet()) {
+            Page page = entry.getValue();
+            // access methods change pages in place before they mark them
+            // dirty, so a page tid write-locked may hold changes of an
+            // operation that was aborted halfway
+            TransactionId dirtier = page.isDirty();
+            if(dirtier == tid || (dirtier == null && lockManager.holdsExclusive(entry.getKey(), tid))) {
+                // tid holds the page's exclusive lock, so nobody else replaces it
+                Page restorePage = loadPage(entry.getKey());
+                if (pages.replace(entry.getKey(), page, restorePage)) {
+                    releaseFrame(page);
+                } else {
+                    releaseFrame(restorePage);
+                }
             }
         }
     }
@@ -234,17 +1232,32 @@ public class BufferPool {
     }
 
     public void updateBufferPoll(List<Page> modifiedPages, TransactionId tid) {
+        if (partitions != null) {
+            for (Page page : modifiedPages) {
+                partition(page.getId()).updateBufferPoll(Collections.singletonList(page), tid);
+            }
+            return;
+        }
         for (Page page : modifiedPages) {
             page.markDirty(true, tid);
             if(pages.size() > numPages) {
                 try {
-                    evictPage();
+                    makeRoom();
                 } catch (DbException e) {
                     e.printStackTrace();
                 }
             }
-            pages.put(page.getId(), page);
-//            evictionPolicy.addPage(page.getId());
+            Page[] old = new Page[1];
+            pages.compute(page.getId(), (k, cur) -> {
+                if (cur == null) {
+                    evictionPolicy.addPage(k);
+                }
+                old[0] = cur;
+                return page;
+            });
+            if (old[0] != null && old[0] != page) {
+                releaseFrame(old[0]);
+            }
         }
     }
 
@@ -256,14 +1269,18 @@ public class BufferPool {
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-        for(PageId pid : pages.keySet()) {
-            try {
-                if(pages.get(pid).isDirty() != null)
-                    flushPage(pid);
-            } catch (IOException e) {
-                e.printStackTrace();
+        if (partitions != null) {
+            for (BufferPool p : partitions) {
+                p.flushAllPages();
             }
+            return;
+        }
+        List<Page> batch = new ArrayList<>();
+        for(Page page : pages.values()) {
+            if(page.isDirty() != null)
+                batch.add(page);
         }
+        flushBatch(batch);
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -274,10 +1291,39 @@ public class BufferPool {
      Also used by B+ tree files to ensure that deleted pages
      are removed from the cache so they can be reused safely
      */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
-        pages.remove(pid);
+        if (partitions != null) {
+            partition(pid).discardPage(pid);
+            return;
+        }
+        writeEpoch.incrementAndGet();
+        dropPage(pid, page -> true);
+    }
+
+    /**
+     * Removes the specified page from the pool if the cached page
+     * satisfies condition. The check and the removal are atomic with
+     * respect to other changes to the page's entry.
+     *
+     * @return the removed page, or null if nothing was removed
+     */
+    private Page dropPage(PageId pid, Predicate<Page> condition) {
+        Page[] removed = new Page[1];
+        pages.computeIfPresent(pid, (k, cur) -> {
+            if (!condition.test(cur)) {
+                return cur;
+            }
+            evictionPolicy.removePage(k);
+            latches.computeIfPresent(k, (x, l) -> l.pins.get() == 0 ? null : l);
+            removed[0] = cur;
+            return null;
+        });
+        if (removed[0] != null) {
+            releaseFrame(removed[0]);
+        }
+        return removed[0];
     }
 
     /**
@@ -287,18 +1333,56 @@ public class BufferPool {
     private synchronized  void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
-        Page flushPage = pages.get(pid);
+        flushBatch(Collections.singletonList(pages.get(pid)));
+    }
 
-        TransactionId dirtier = flushPage.isDirty();
-        if(dirtier != null) {
-            Database.getLogFile().logWrite(dirtier, flushPage.getBeforeImage(), flushPage);
+    /**
+     * Writes a batch of pages to disk. An update record is logged for every
+     * dirty page in the batch and the log is forced once, before any page
+     * is written, to preserve write-ahead logging. The pages are then
+     * grouped by file and handed to {@link DbFile#writePages} in page
+     * order, so files can coalesce adjacent pages into single writes.
+     * <p>
+     * Unlike lookups and eviction, writes stay synchronized on the pool:
+     * LogFile holds the pool's monitor to keep page writes out of
+     * checkpoints, rollback and recovery.
+     */
+    private synchronized void flushBatch(List<Page> batch) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        boolean logged = false;
+        List<TransactionId> dirtiers = new ArrayList<>();
+        for (Page page : batch) {
+            TransactionId dirtier = page.isDirty();
+            dirtiers.add(dirtier);
+            if (dirtier != null) {
+                Database.getLogFile().logWrite(dirtier, page.getBeforeImage(), page);
+                logged = true;
+            }
+        }
+        if (logged) {
             Database.getLogFile().force();
-//            flushPage.setBeforeImage();
         }
 
-        int tableId = pid.getTableId();
-        Database.getCatalog().getDatabaseFile(tableId).writePage(flushPage);
-        flushPage.markDirty(false, null);
+        writeEpoch.incrementAndGet();
+        Map<Integer, List<Page>> byTable = new TreeMap<>();
+        for (Page page : batch) {
+            byTable.computeIfAbsent(page.getId().getTableId(), k -> new ArrayList<>()).add(page);
+        }
+        for (Map.Entry<Integer, List<Page>> e : byTable.entrySet()) {
+            List<Page> filePages = e.getValue();
+            filePages.sort(Comparator.comparingInt(p -> p.getId().getPageNumber()));
+            Database.getCatalog().getDatabaseFile(e.getKey()).writePages(filePages);
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            // a page dirtied again meanwhile keeps its new dirtier
+            if (batch.get(i).isDirty() == dirtiers.get(i)) {
+                batch.get(i).markDirty(false, null);
+            }
+        }
+        recordFlush(batch.size(), System.nanoTime() - start);
     }
 
     /** Write all pages of the specified transaction to disk.
@@ -306,188 +1390,352 @@ public class BufferPool {
     public synchronized  void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
-        for(PageId pid : pages.keySet()) {
-            Page page = pages.get(pid);
-            page.setBeforeImage();
+        List<Page> written = new ArrayList<>();
+        for (BufferPool p : partitions()) {
+            for (Page page : p.pages.values()) {
+                if (page.isDirty() == tid) {
+                    written.add(page);
+                }
+            }
+        }
+        // snapshots see the pages change together, once they are written
+        VersionStore.Commit commit = versions.beginCommit(written);
+        try {
+            for (BufferPool p : partitions()) {
+                p.flushOwnPages(tid);
+            }
+        } finally {
+            versions.endCommit(commit, written);
+        }
+    }
+
+    /** Writes the pages of the specified transaction this partition caches. */
+    private synchronized void flushOwnPages(TransactionId tid) throws IOException {
+        List<Page> batch = new ArrayList<>();
+        for(Page page : pages.values()) {
             if(page.isDirty() == tid) {
-                flushPage(pid);
+                batch.add(page);
+            } else if (page.isDirty() == null) {
+                // a page another transaction dirtied keeps its before
+                // image, which the page cleaner may still have to log
+                page.setBeforeImage();
             }
         }
+        flushBatch(batch);
+        // the committed contents are the before image of the next update
+        for (Page page : batch) {
+            page.setBeforeImage();
+        }
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Starts a background thread that keeps at least cleanFraction of the
+     * pool's frames free or clean, by writing dirty pages ahead of
+     * eviction, so that a page request rarely has to wait for a write or
+     * fails because every page is dirty. While the cleaner runs, eviction
+     * that finds no clean page cleans one itself instead of failing.
+     * <p>
+     * This lets uncommitted changes reach disk (STEAL). Only HeapPages of
+     * transactions with a BEGIN record in the log are written: their
+     * update records, forced before the pages are written, let an abort
+     * or recovery undo the changes. Pages of other transactions stay in
+     * the pool until they commit, as before.
+     *
+     * A partitioned pool runs a page cleaner for every partition.
+     *
+     * @param cleanFraction fraction of the pool, between 0 and 1, to keep
+     *                      free or clean
      */
-    private synchronized  void evictPage() throws DbException {
-        // some code goes here
-        // not necessary for lab1
-        PageId evictPageId = evictionPolicy.getEvictPage();
-        PageId firstEvictPageId = evictPageId;
-        while(pages.get(evictPageId).isDirty() != null) {
-            evictionPolicy.addPage(evictPageId);
-            evictPageId = evictionPolicy.getEvictPage();
-            if(evictPageId.equals(firstEvictPageId)) {
-                throw new DbException("All pages are dirty!");
+    public synchronized void startPageCleaner(double cleanFraction) {
+        if (cleanFraction < 0 || cleanFraction > 1) {
+            throw new IllegalArgumentException("cleanFraction must be between 0 and 1");
+        }
+        this.cleanFraction = cleanFraction;
+        if (partitions != null) {
+            for (BufferPool p : partitions) {
+                p.startPageCleaner(cleanFraction);
             }
+            return;
         }
-        try {
-            flushPage(evictPageId);
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (cleaner != null) {
+            return;
         }
-        discardPage(evictPageId);
-    }
-
-}
-
-interface EvictionPolicy {
-    public void addPage(PageId pid);
-
-    public PageId getEvictPage();
-}
-
-class FIFOEvict implements EvictionPolicy {
-    private final Queue<PageId> queue;
-
-    public FIFOEvict() {
-        queue = new ArrayDeque<>();
-    }
-
-    @Override
-    public void addPage(PageId pid) {
-        queue.offer(pid);
-    }
-
-    @Override
-    public PageId getEvictPage() {
-        return queue.poll();
-    }
-}
-
-class PageLock {
-    public static final int SHARE = 0;
-    public static final int EXCLUSIVE = 1;
-    private TransactionId tid;
-    private int lockType;
-
-    public PageLock(TransactionId tid, int lockType) {
-        this.tid = tid;
-        this.lockType = lockType;
+        Thread t = new Thread(this::runCleaner, "BufferPool-cleaner");
+        t.setDaemon(true);
+        cleaner = t;
+        t.start();
     }
 
-    public TransactionId getTid() {
-        return tid;
-    }
-
-    public int getLockType() {
-        return lockType;
+    /**
+     * Stops the page cleaner started by {@link #startPageCleaner} and waits
+     * for it to finish its current round.
+     */
+    public void stopPageCleaner() {
+        if (partitions != null) {
+            for (BufferPool p : partitions) {
+                p.stopPageCleaner();
+            }
+            return;
+        }
+        Thread t;
+        synchronized (this) {
+            t = cleaner;
+            cleaner = null;
+        }
+        if (t == null) {
+            return;
+        }
+        wakeCleaner();
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
-    public void setLockType(int lockType) {
-        this.lockType = lockType;
+    /**
+     * @return the number of pages written by the page cleaner so far
+     */
+    public long getCleanedPageCount() {
+        return partitions().stream().mapToLong(p -> p.cleanedPages.sum()).sum();
     }
-}
-
-class LockManager {
-    ConcurrentHashMap<PageId, ConcurrentHashMap<TransactionId, PageLock> > lockMap = new ConcurrentHashMap<>();
 
-    public synchronized boolean acquireLock(PageId pid, TransactionId tid, int lockType) throws InterruptedException, TransactionAbortedException {
-        if(!lockMap.containsKey(pid)) {
-            PageLock pageLock = new PageLock(tid, lockType);
-            ConcurrentHashMap<TransactionId, PageLock> pageLocks = new ConcurrentHashMap<>();
-            pageLocks.put(tid, pageLock);
-            lockMap.put(pid, pageLocks);
-            return true;
+    private void wakeCleaner() {
+        if (cleaner != null) {
+            synchronized (cleanerSignal) {
+                cleanerSignal.notify();
+            }
         }
+    }
 
-        ConcurrentHashMap<TransactionId, PageLock> pageLocks = lockMap.get(pid);
-        if(!pageLocks.containsKey(tid)) {
-            if(pageLocks.size() > 1) {
-                if(lockType == PageLock.EXCLUSIVE) {
-                    wait(50);
-                    return false;
+    private void runCleaner() {
+        Thread self = Thread.currentThread();
+        // stop with the pool, or once a test replaced it with a new one
+        while (cleaner == self && Database.getBufferPool() == owner) {
+            int dirty = 0;
+            for (Page page : pages.values()) {
+                if (page.isDirty() != null) {
+                    dirty++;
                 }
-                else {
-                    PageLock pageLock = new PageLock(tid, lockType);
-                    pageLocks.put(tid, pageLock);
-                    lockMap.put(pid, pageLocks);
-                    return true;
+            }
+            // after a shrink, pages beyond the capacity have to be clean
+            // before they can leave, on top of the fraction kept clean
+            int size = pages.size();
+            int wanted = (int) Math.ceil(cleanFraction * numPages) + Math.max(0, size - numPages)
+                    - (size - dirty + Math.max(0, numPages - size));
+            if (wanted > 0) {
+                try {
+                    synchronized (owner) {
+                        cleanPages(wanted);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
                 }
             }
-            else if(pageLocks.size() == 1) {
-                PageLock currentLock = pageLocks.values().iterator().next();
-                if(currentLock.getLockType() == PageLock.EXCLUSIVE) {
-                    wait(50);
-                    return false;
+            trim();
+            synchronized (cleanerSignal) {
+                try {
+                    cleanerSignal.wait(CLEANER_INTERVAL_MS);
+                } catch (InterruptedException e) {
+                    return;
                 }
-                else {
-                    if(lockType == PageLock.EXCLUSIVE) {
-                        wait(50);
-                        return false;
-                    }
-                    else {
-                        PageLock pageLock = new PageLock(tid, lockType);
-                        pageLocks.put(tid, pageLock);
-                        lockMap.put(pid, pageLocks);
-                        return true;
+            }
+        }
+    }
+
+    /**
+     * Writes up to wanted dirty pages that may be stolen, in the order the
+     * eviction policy would evict them, and marks them clean. An update
+     * record is logged for every page and the log is forced before any
+     * page is written. A page is marked clean only if it did not change
+     * after it was logged; otherwise it is left dirty for the next round.
+     *
+     * @return the number of pages cleaned
+     */
+    private synchronized int cleanPages(int wanted) throws IOException {
+        // decided up front, since LogFile must not be called under the
+        // eviction policy's lock
+        Set<PageId> stealable = new HashSet<>();
+        for (Page page : pages.values()) {
+            TransactionId dirtier = page.isDirty();
+            if (page instanceof HeapPage && dirtier != null && Database.getLogFile().isLive(dirtier)) {
+                stealable.add(page.getId());
+            }
+        }
+        List<Page> victims = new ArrayList<>();
+        while (victims.size() < wanted) {
+            PageId pid = evictionPolicy.getEvictPage(stealable::contains);
+            if (pid == null) {
+                break;
+            }
+            stealable.remove(pid);
+            Page page = pages.get(pid);
+            if (page != null && pinPage(page)) {
+                victims.add(page);
+            }
+        }
+        if (victims.isEmpty()) {
+            return 0;
+        }
+
+        long start = System.nanoTime();
+        LogFile log = Database.getLogFile();
+        List<TransactionId> dirtiers = new ArrayList<>();
+        List<byte[]> images = new ArrayList<>();
+        int cleaned = 0;
+        try {
+            for (Page page : victims) {
+                // the page's transaction keeps running; hold the page still
+                // while it is logged, after any change in progress is done
+                latchPage(page.getId(), Permissions.READ_ONLY);
+                try {
+                    synchronized (page) {
+                        TransactionId dirtier = page.isDirty();
+                        dirtiers.add(dirtier);
+                        images.add(dirtier == null ? null : page.getPageData());
+                        if (dirtier != null) {
+                            log.logWrite(dirtier, page.getBeforeImage(), page);
+                        }
                     }
+                } finally {
+                    unlatchPage(page.getId(), Permissions.READ_ONLY);
                 }
             }
-        }
-        else {
-            PageLock currentLock = pageLocks.get(tid);
-            if (currentLock.getLockType() == PageLock.EXCLUSIVE) {
-                return true;
-            } else {
-                if (lockType == PageLock.SHARE) {
-                    return true;
-                } else {
-                    if (pageLocks.size() > 1) {
-                        wait(50);
-                        throw new TransactionAbortedException();
-                    } else {
-                        PageLock pageLock = new PageLock(tid, lockType);
-                        pageLocks.put(tid, pageLock);
-                        lockMap.put(pid, pageLocks);
-                        return true;
+            log.force();
+
+            writeEpoch.incrementAndGet();
+            for (int i = 0; i < victims.size(); i++) {
+                Page page = victims.get(i);
+                synchronized (page) {
+                    if (images.get(i) == null || page.isDirty() != dirtiers.get(i)
+                            || !Arrays.equals(images.get(i), page.getPageData())) {
+                        continue;
                     }
+                    Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
+                    page.markDirty(false, null);
+                    cleaned++;
                 }
             }
+        } finally {
+            victims.forEach(page -> unpinPage(page.getId()));
         }
-
-        return false;
+        cleanedPages.add(cleaned);
+        recordFlush(cleaned, System.nanoTime() - start);
+        return cleaned;
     }
 
-    public synchronized boolean releaseLock(PageId pid, TransactionId tid) {
-        if(!holdsLock(pid, tid)) {
-            return false;
-        }
-        ConcurrentHashMap<TransactionId, PageLock> pageLocks = lockMap.get(pid);
-        pageLocks.remove(tid);
-        if(pageLocks.isEmpty()) {
-            lockMap.remove(pid);
+    private boolean cleanPagesForEviction() throws DbException {
+        try {
+            // page writes take the owner's monitor before the partition's
+            synchronized (owner) {
+                return cleanPages(1) > 0;
+            }
+        } catch (IOException e) {
+            throw new DbException("could not clean a page: " + e.getMessage());
         }
-        this.notifyAll();
-        return true;
     }
 
-    public synchronized boolean holdsLock(PageId pid, TransactionId tid) {
-        if(!lockMap.containsKey(pid)) {
-            return false;
+    /**
+     * Discards a page from the buffer pool.
+     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     */
+    private void evictPage() throws DbException {
+        // some code goes here
+        // not necessary for lab1
+        // NO STEAL: only clean pages may leave the pool, so there is
+        // nothing to write back. With the page cleaner running, dirty
+        // pages it may steal are cleaned first when there is no other way.
+        // Pinned pages are in use and stay.
+        while (!evictCleanPage()) {
+            if (cleaner == null || !cleanPagesForEviction()) {
+                throw new DbException("All pages are dirty or pinned!");
+            }
         }
+    }
 
-        ConcurrentHashMap<TransactionId, PageLock> pageLocks = lockMap.get(pid);
-        if(!pageLocks.containsKey(tid)) {
-            return false;
+    /**
+     * Evicts the clean, unpinned page the eviction policy chooses.
+     *
+     * @return false if there was no such page to evict
+     */
+    private boolean evictCleanPage() {
+        while (true) {
+            PageId evictPageId = evictionPolicy.getEvictPage(pid -> {
+                Page page = pages.get(pid);
+                return page != null && isEvictable(page);
+            });
+            if (evictPageId == null) {
+                return false;
+            }
+            // another thread may have dirtied, pinned or evicted the page
+            // meanwhile
+            if (dropPage(evictPageId, this::isEvictable) != null) {
+                evictions.increment();
+                return true;
+            }
         }
+    }
 
-        return true;
+}
+
+/**
+ * Chooses the pages a BufferPool evicts. The pool tells the policy about
+ * every page it reads in, every hit and every page that leaves it.
+ */
+interface EvictionPolicy {
+    /** Called when a page is read into the pool. */
+    public void addPage(PageId pid);
+
+    /** Called on every request for a page that is already in the pool. */
+    public void pageAccessed(PageId pid);
+
+    /** Called when a page leaves the pool, evicted or discarded. */
+    public void removePage(PageId pid);
+
+    /**
+     * Chooses the page to evict next among the pages in the pool that
+     * evictable accepts, without removing it.
+     *
+     * @return the page to evict, or null if evictable accepts none
+     */
+    public PageId getEvictPage(Predicate<PageId> evictable);
+
+    /** Called when the capacity of the pool changes to numPages. */
+    public void resize(int numPages);
+}
+
+class FIFOEvict implements EvictionPolicy {
+    private final Set<PageId> queue;
+
+    public FIFOEvict() {
+        queue = new LinkedHashSet<>();
+    }
+
+    @Override
+    public synchronized void addPage(PageId pid) {
+        queue.add(pid);
+    }
+
+    @Override
+    public void pageAccessed(PageId pid) {
     }
 
-    public synchronized void completeTransaction(TransactionId tid) {
-        for(PageId pid : lockMap.keySet()) {
-            releaseLock(pid, tid);
+    @Override
+    public void resize(int numPages) {
+    }
+
+    @Override
+    public synchronized void removePage(PageId pid) {
+        queue.remove(pid);
+    }
+
+    @Override
+    public synchronized PageId getEvictPage(Predicate<PageId> evictable) {
+        for (PageId pid : queue) {
+            if (evictable.test(pid)) {
+                return pid;
+            }
         }
+        return null;
     }
 }
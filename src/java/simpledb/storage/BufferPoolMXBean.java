@@ -0,0 +1,37 @@
+package simpledb.storage;
+
+import java.util.Map;
+
+/**
+ * Management interface of the database's BufferPool, registered with the
+ * platform MBean server as {@value BufferPool#MBEAN_NAME}. It always
+ * describes the pool currently installed in the Database. See
+ * {@link BufferPoolStats} for the meaning of the attributes.
+ */
+public interface BufferPoolMXBean {
+    int getCapacity();
+
+    int getResidentPages();
+
+    int getDirtyPages();
+
+    Map<Integer, Integer> getResidentPagesByTable();
+
+    long getHits();
+
+    long getMisses();
+
+    double getHitRatio();
+
+    long getEvictions();
+
+    long getFlushedPages();
+
+    long getFlushes();
+
+    long getAverageFlushNanos();
+
+    long getMaxFlushNanos();
+
+    long getCleanedPages();
+}
@@ -0,0 +1,81 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+
+import java.util.Map;
+
+/**
+ * The BufferPoolMXBean registered by {@link BufferPool#registerMBean()}.
+ * Every attribute is read from a fresh snapshot of the pool the Database
+ * currently uses, so the registration survives the pool being replaced.
+ */
+class BufferPoolMonitor implements BufferPoolMXBean {
+    private static BufferPoolStats stats() {
+        return Database.getBufferPool().stats();
+    }
+
+    @Override
+    public int getCapacity() {
+        return stats().getCapacity();
+    }
+
+    @Override
+    public int getResidentPages() {
+        return stats().getResidentPages();
+    }
+
+    @Override
+    public int getDirtyPages() {
+        return stats().getDirtyPages();
+    }
+
+    @Override
+    public Map<Integer, Integer> getResidentPagesByTable() {
+        return stats().getResidentPagesByTable();
+    }
+
+    @Override
+    public long getHits() {
+        return stats().getHits();
+    }
+
+    @Override
+    public long getMisses() {
+        return stats().getMisses();
+    }
+
+    @Override
+    public double getHitRatio() {
+        return stats().getHitRatio();
+    }
+
+    @Override
+    public long getEvictions() {
+        return stats().getEvictions();
+    }
+
+    @Override
+    public long getFlushedPages() {
+        return stats().getFlushedPages();
+    }
+
+    @Override
+    public long getFlushes() {
+        return stats().getFlushes();
+    }
+
+    @Override
+    public long getAverageFlushNanos() {
+        return stats().getAverageFlushNanos();
+    }
+
+    @Override
+    public long getMaxFlushNanos() {
+        return stats().getMaxFlushNanos();
+    }
+
+    @Override
+    public long getCleanedPages() {
+        return stats().getCleanedPages();
+    }
+}
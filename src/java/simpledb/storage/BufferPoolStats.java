@@ -0,0 +1,190 @@
+package simpledb.storage;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * BufferPoolStats is a snapshot of a BufferPool's counters, taken by
+ * {@link BufferPool#stats()}. The counters count from the creation of the
+ * pool; the page counts describe the pool at the time of the snapshot.
+ * Counters updated by other threads while the snapshot is taken may be
+ * slightly out of step with each other.
+ *
+ * @Immutable
+ */
+public class BufferPoolStats {
+    private final int capacity;
+    private final int residentPages;
+    private final int dirtyPages;
+    private final Map<Integer, Integer> residentPagesByTable;
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final long flushedPages;
+    private final long flushes;
+    private final long flushNanos;
+    private final long maxFlushNanos;
+    private final long cleanedPages;
+
+    BufferPoolStats(int capacity, int residentPages, int dirtyPages,
+                    Map<Integer, Integer> residentPagesByTable,
+                    long hits, long misses, long evictions,
+                    long flushedPages, long flushes, long flushNanos,
+                    long maxFlushNanos, long cleanedPages) {
+        this.capacity = capacity;
+        this.residentPages = residentPages;
+        this.dirtyPages = dirtyPages;
+        this.residentPagesByTable = Collections.unmodifiableMap(residentPagesByTable);
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.flushedPages = flushedPages;
+        this.flushes = flushes;
+        this.flushNanos = flushNanos;
+        this.maxFlushNanos = maxFlushNanos;
+        this.cleanedPages = cleanedPages;
+    }
+
+    /**
+     * Adds up the statistics of the partitions of a pool of the specified
+     * capacity.
+     */
+    static BufferPoolStats combine(int capacity, List<BufferPoolStats> partitions) {
+        int resident = 0;
+        int dirty = 0;
+        Map<Integer, Integer> byTable = new TreeMap<>();
+        long hits = 0, misses = 0, evictions = 0, flushedPages = 0, flushes = 0;
+        long flushNanos = 0, maxFlushNanos = 0, cleanedPages = 0;
+        for (BufferPoolStats p : partitions) {
+            resident += p.residentPages;
+            dirty += p.dirtyPages;
+            p.residentPagesByTable.forEach((table, n) -> byTable.merge(table, n, Integer::sum));
+            hits += p.hits;
+            misses += p.misses;
+            evictions += p.evictions;
+            flushedPages += p.flushedPages;
+            flushes += p.flushes;
+            flushNanos += p.flushNanos;
+            maxFlushNanos = Math.max(maxFlushNanos, p.maxFlushNanos);
+            cleanedPages += p.cleanedPages;
+        }
+        return new BufferPoolStats(capacity, resident, dirty, byTable, hits, misses, evictions,
+                flushedPages, flushes, flushNanos, maxFlushNanos, cleanedPages);
+    }
+
+    /**
+     * @return the maximum number of pages the pool caches
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of pages in the pool
+     */
+    public int getResidentPages() {
+        return residentPages;
+    }
+
+    /**
+     * @return the number of pages in the pool with changes not yet written
+     */
+    public int getDirtyPages() {
+        return dirtyPages;
+    }
+
+    /**
+     * @return the number of pages in the pool by table id
+     */
+    public Map<Integer, Integer> getResidentPagesByTable() {
+        return residentPagesByTable;
+    }
+
+    /**
+     * @return the number of page requests that found the page in the pool
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of page requests that read the page from disk
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the fraction of page requests that found the page in the
+     *         pool, or 0 if there were none
+     */
+    public double getHitRatio() {
+        long requests = hits + misses;
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    /**
+     * @return the number of pages dropped from the pool to make room for
+     *         others
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the number of pages written to disk, by flushes and by the
+     *         page cleaner
+     */
+    public long getFlushedPages() {
+        return flushedPages;
+    }
+
+    /**
+     * @return the number of times a batch of pages was written to disk
+     */
+    public long getFlushes() {
+        return flushes;
+    }
+
+    /**
+     * @return the total time spent writing batches of pages, including
+     *         forcing the log, in nanoseconds
+     */
+    public long getFlushNanos() {
+        return flushNanos;
+    }
+
+    /**
+     * @return the average time a batch of pages took to write, in
+     *         nanoseconds, or 0 if nothing was written
+     */
+    public long getAverageFlushNanos() {
+        return flushes == 0 ? 0 : flushNanos / flushes;
+    }
+
+    /**
+     * @return the longest time a batch of pages took to write, in
+     *         nanoseconds
+     */
+    public long getMaxFlushNanos() {
+        return maxFlushNanos;
+    }
+
+    /**
+     * @return the number of pages written by the page cleaner
+     */
+    public long getCleanedPages() {
+        return cleanedPages;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d/%d pages (%d dirty), %d hits, %d misses (%.1f%% hits), "
+                        + "%d evictions, %d pages flushed in %d batches (avg %.3f ms, max %.3f ms), %d cleaned",
+                residentPages, capacity, dirtyPages, hits, misses, 100 * getHitRatio(),
+                evictions, flushedPages, flushes, getAverageFlushNanos() / 1e6, maxFlushNanos / 1e6,
+                cleanedPages);
+    }
+}
@@ -0,0 +1,116 @@
+package simpledb.storage;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * Wraps an EvictionPolicy so that recording a hit never waits on a lock.
+ * Hits go into small lock-free ring buffers, one per stripe of threads,
+ * and are replayed into the policy in batches by whichever thread next
+ * holds the policy lock: a thread whose hit completes a batch, if the
+ * lock happens to be free, or any thread adding, removing or evicting a
+ * page. A hit is dropped if its buffer wraps around before it is
+ * replayed; replacement is a heuristic and does not need every hit.
+ *
+ * @Threadsafe
+ */
+class BufferedAccessPolicy implements EvictionPolicy {
+    private static final int BUFFER_SIZE = 64;
+    private static final int BATCH = 16;
+    private static final int STRIPES = Integer.highestOneBit(
+            Math.min(64, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+
+    private static final class Stripe {
+        final AtomicReferenceArray<PageId> buffer = new AtomicReferenceArray<>(BUFFER_SIZE);
+        final AtomicLong writes = new AtomicLong();
+        /** number of entries replayed so far; guarded by lock */
+        long reads;
+    }
+
+    private final EvictionPolicy policy;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    BufferedAccessPolicy(EvictionPolicy policy) {
+        this.policy = policy;
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    @Override
+    public void pageAccessed(PageId pid) {
+        Stripe s = stripes[(int) Thread.currentThread().getId() & (STRIPES - 1)];
+        long w = s.writes.getAndIncrement();
+        s.buffer.lazySet((int) (w & (BUFFER_SIZE - 1)), pid);
+        if ((w & (BATCH - 1)) == BATCH - 1 && lock.tryLock()) {
+            try {
+                drain();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Replays the buffered hits into the policy. Must hold lock.
+     */
+    private void drain() {
+        for (Stripe s : stripes) {
+            long end = s.writes.get();
+            for (long i = Math.max(s.reads, end - BUFFER_SIZE); i < end; i++) {
+                // null if the hit is still being written; it is dropped
+                PageId pid = s.buffer.getAndSet((int) (i & (BUFFER_SIZE - 1)), null);
+                if (pid != null) {
+                    policy.pageAccessed(pid);
+                }
+            }
+            s.reads = end;
+        }
+    }
+
+    @Override
+    public void addPage(PageId pid) {
+        lock.lock();
+        try {
+            drain();
+            policy.addPage(pid);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void removePage(PageId pid) {
+        lock.lock();
+        try {
+            drain();
+            policy.removePage(pid);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public PageId getEvictPage(Predicate<PageId> evictable) {
+        lock.lock();
+        try {
+            drain();
+            return policy.getEvictPage(evictable);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void resize(int numPages) {
+        lock.lock();
+        try {
+            policy.resize(numPages);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.function.Predicate;
+
+/**
+ * CLOCK (second chance) replacement. Resident pages sit in a circular
+ * buffer with a reference bit that every hit sets. The clock hand sweeps
+ * the buffer, clearing set bits, and evicts the first page whose bit is
+ * already clear, so a page survives for as long as it is hit at least
+ * once per revolution of the hand.
+ *
+ * @Threadsafe
+ */
+class ClockEvict implements EvictionPolicy {
+    private final List<PageId> slots = new ArrayList<>();
+    private final List<Boolean> referenced = new ArrayList<>();
+    private final Map<PageId, Integer> slotOf = new HashMap<>();
+    /** slots emptied by removePage, reused by addPage */
+    private final Queue<Integer> holes = new ArrayDeque<>();
+    private int hand = 0;
+
+    @Override
+    public synchronized void addPage(PageId pid) {
+        if (slotOf.containsKey(pid)) {
+            return;
+        }
+        Integer slot = holes.poll();
+        if (slot == null) {
+            slot = slots.size();
+            slots.add(pid);
+            referenced.add(false);
+        } else {
+            slots.set(slot, pid);
+            referenced.set(slot, false);
+        }
+        slotOf.put(pid, slot);
+    }
+
+    @Override
+    public synchronized void pageAccessed(PageId pid) {
+        Integer slot = slotOf.get(pid);
+        if (slot != null) {
+            referenced.set(slot, true);
+        }
+    }
+
+    @Override
+    public synchronized void removePage(PageId pid) {
+        Integer slot = slotOf.remove(pid);
+        if (slot != null) {
+            slots.set(slot, null);
+            holes.add(slot);
+        }
+    }
+
+    @Override
+    public synchronized PageId getEvictPage(Predicate<PageId> evictable) {
+        int n = slots.size();
+        // the first revolution may only clear bits; the second finds them clear
+        for (int steps = 0; steps < 2 * n; steps++) {
+            int slot = hand;
+            hand = (hand + 1) % n;
+            PageId pid = slots.get(slot);
+            if (pid == null) {
+                continue;
+            }
+            if (referenced.get(slot)) {
+                referenced.set(slot, false);
+            } else if (evictable.test(pid)) {
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void resize(int numPages) {
+        // the buffer has a slot per resident page whatever the capacity;
+        // slots left empty by a shrink are reused as pages come in
+    }
+}
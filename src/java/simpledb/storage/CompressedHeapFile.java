@@ -0,0 +1,357 @@
+package simpledb.storage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * CompressedHeapFile is a HeapFile whose pages are stored deflate-compressed
+ * on disk. Pages are decompressed when they are read into the BufferPool
+ * and compressed again when they are written back, so HeapPages, the
+ * BufferPool and the operators above see exactly the same pages as for an
+ * uncompressed HeapFile.
+ * <p>
+ * The file starts with a header (magic number, page size and the offset of
+ * the first directory block). Directory blocks hold an entry per page (the
+ * offset, compressed length and allocated capacity of the page's blob) and
+ * the offset of the next directory block. Page blobs follow in no
+ * particular order. A page that is written back is overwritten in place
+ * when its new compressed form fits in the space allocated to it, and is
+ * appended to the end of the file otherwise; the space of the old copy is
+ * not reused until the file is rewritten with {@link HeapFileEncoder}.
+ * <p>
+ * The whole directory is kept in memory once loaded. Memory-mapped scans
+ * are not supported, as the on-disk bytes are not page images.
+ *
+ * @see HeapFileEncoder#convert(File, File, int, int, simpledb.common.Type[], char, boolean)
+ */
+public class CompressedHeapFile extends HeapFile {
+    /** First four bytes of every compressed heap file. */
+    public static final int MAGIC = 0x53444243;
+
+    private static final int HEADER_BYTES = 16;
+    private static final int DIR_ENTRIES = 256;
+    private static final int ENTRY_BYTES = 16;
+    private static final int DIR_BYTES = 8 + DIR_ENTRIES * ENTRY_BYTES;
+
+    /** in-memory copy of the directory, loaded by {@link #directory()} */
+    private boolean loaded = false;
+    private final List<Long> dirBlocks = new ArrayList<>();
+    private long[] offsets = new long[DIR_ENTRIES];
+    private int[] lengths = new int[DIR_ENTRIES];
+    private int[] capacities = new int[DIR_ENTRIES];
+    private int numPages = 0;
+    private long fileEnd;
+
+    /**
+     * Constructs a compressed heap file backed by the specified file, which
+     * is created (empty) if it does not exist.
+     */
+    public CompressedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    /**
+     * Constructs a compressed heap file whose pages, once inflated, store
+     * tuples row by row or column by column.
+     *
+     * @see HeapFile#HeapFile(File, TupleDesc, boolean)
+     */
+    public CompressedHeapFile(File f, TupleDesc td, boolean columnar) {
+        super(f, td, columnar);
+    }
+
+    /**
+     * @return true if f exists and starts with the compressed heap file
+     *         magic number
+     */
+    public static boolean isCompressed(File f) {
+        if (!f.isFile() || f.length() < HEADER_BYTES) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(f))) {
+            return in.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes a compressed copy of the uncompressed heap file in to out.
+     *
+     * @param pageSize the page size of in
+     */
+    public static void compress(File in, File out, int pageSize) throws IOException {
+        if (out.exists() && !out.delete()) {
+            throw new IOException("unable to replace " + out);
+        }
+        int n = (int) (in.length() / pageSize);
+        try (DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(in)));
+             FileChannel ch = FileChannel.open(out.toPath(), StandardOpenOption.CREATE_NEW,
+                     StandardOpenOption.WRITE)) {
+            int dirCount = Math.max(1, (n + DIR_ENTRIES - 1) / DIR_ENTRIES);
+            long dataStart = HEADER_BYTES + (long) dirCount * DIR_BYTES;
+            ByteBuffer dir = ByteBuffer.allocate(dirCount * DIR_BYTES);
+            byte[] page = new byte[pageSize];
+            long pos = dataStart;
+            for (int pgNo = 0; pgNo < n; pgNo++) {
+                is.readFully(page);
+                byte[] blob = deflate(page);
+                writeFully(ch, ByteBuffer.wrap(blob), pos);
+                int block = pgNo / DIR_ENTRIES;
+                if (pgNo % DIR_ENTRIES == 0 && block + 1 < dirCount) {
+                    dir.putLong(block * DIR_BYTES, HEADER_BYTES + (long) (block + 1) * DIR_BYTES);
+                }
+                int entry = block * DIR_BYTES + 8 + (pgNo % DIR_ENTRIES) * ENTRY_BYTES;
+                dir.putLong(entry, pos);
+                dir.putInt(entry + 8, blob.length);
+                dir.putInt(entry + 12, blob.length);
+                pos += blob.length;
+            }
+            writeFully(ch, dir, HEADER_BYTES);
+            writeFully(ch, header(pageSize, HEADER_BYTES), 0);
+        }
+    }
+
+    private static ByteBuffer header(int pageSize, long firstDir) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(pageSize).putLong(firstDir);
+        header.flip();
+        return header;
+    }
+
+    private static byte[] deflate(byte[] page) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(page);
+            deflater.finish();
+            byte[] out = new byte[page.length + page.length / 8 + 64];
+            int len = 0;
+            while (!deflater.finished()) {
+                if (len == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                len += deflater.deflate(out, len, out.length - len);
+            }
+            return Arrays.copyOf(out, len);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] blob, int pageSize) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(blob);
+            byte[] page = new byte[pageSize];
+            int len = 0;
+            while (len < pageSize && !inflater.finished()) {
+                int n = inflater.inflate(page, len, pageSize - len);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                len += n;
+            }
+            if (len != pageSize) {
+                throw new IOException("compressed page inflated to " + len + " bytes, expected " + pageSize);
+            }
+            return page;
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt compressed page", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf, long offset) throws IOException {
+        long start = offset - buf.position();
+        while (buf.hasRemaining()) {
+            ch.write(buf, start + buf.position());
+        }
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long offset) throws IOException {
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, offset + buf.position()) < 0) {
+                throw new EOFException("compressed heap file truncated at " + (offset + buf.position()));
+            }
+        }
+    }
+
+    /**
+     * Loads the directory into memory on first use, initializing the file
+     * if it is empty.
+     */
+    private synchronized void directory() throws IOException {
+        if (loaded) {
+            return;
+        }
+        FileChannel ch = channel();
+        int pageSize = BufferPool.getPageSize();
+        if (ch.size() == 0) {
+            writeFully(ch, ByteBuffer.allocate(DIR_BYTES), HEADER_BYTES);
+            writeFully(ch, header(pageSize, HEADER_BYTES), 0);
+            dirBlocks.add((long) HEADER_BYTES);
+            fileEnd = HEADER_BYTES + DIR_BYTES;
+            loaded = true;
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        readFully(ch, header, 0);
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException(getFile() + " is not a compressed heap file");
+        }
+        if (header.getInt(4) != pageSize) {
+            throw new IOException(getFile() + " was written with page size " + header.getInt(4));
+        }
+        ByteBuffer block = ByteBuffer.allocate(DIR_BYTES);
+        for (long dir = header.getLong(8); dir != 0; dir = block.getLong(0)) {
+            block.clear();
+            readFully(ch, block, dir);
+            dirBlocks.add(dir);
+            for (int i = 0; i < DIR_ENTRIES; i++) {
+                int entry = 8 + i * ENTRY_BYTES;
+                long offset = block.getLong(entry);
+                if (offset == 0) {
+                    break;
+                }
+                setEntry(numPages, offset, block.getInt(entry + 8), block.getInt(entry + 12));
+            }
+        }
+        fileEnd = ch.size();
+        loaded = true;
+    }
+
+    private void setEntry(int pgNo, long offset, int length, int capacity) {
+        if (pgNo >= offsets.length) {
+            int size = Math.max(pgNo + 1, offsets.length * 2);
+            offsets = Arrays.copyOf(offsets, size);
+            lengths = Arrays.copyOf(lengths, size);
+            capacities = Arrays.copyOf(capacities, size);
+        }
+        offsets[pgNo] = offset;
+        lengths[pgNo] = length;
+        capacities[pgNo] = capacity;
+        numPages = Math.max(numPages, pgNo + 1);
+    }
+
+    /**
+     * Reads and decompresses page pgNo.
+     */
+    @Override
+    byte[] readPageData(int pgNo) throws IOException {
+        long offset;
+        int length;
+        synchronized (this) {
+            directory();
+            if (pgNo < 0 || pgNo >= numPages) {
+                throw new IllegalArgumentException(String.format("table %d page %d is invalid", getId(), pgNo));
+            }
+            offset = offsets[pgNo];
+            length = lengths[pgNo];
+        }
+        ByteBuffer blob = ByteBuffer.allocate(length);
+        readFully(channel(), blob, offset);
+        return inflate(blob.array(), BufferPool.getPageSize());
+    }
+
+    @Override
+    void readPageData(int pgNo, ByteBuffer dst) throws IOException {
+        dst.put(readPageData(pgNo));
+    }
+
+    @Override
+    void readPageHeader(int pgNo, byte[] header) throws IOException {
+        System.arraycopy(readPageData(pgNo), 0, header, 0, header.length);
+    }
+
+    /**
+     * Compresses data and writes it as page pgNo, in place if it fits in
+     * the page's current blob and at the end of the file otherwise.
+     */
+    @Override
+    synchronized void writePageData(int pgNo, byte[] data) throws IOException {
+        directory();
+        if (pgNo > numPages) {
+            throw new IllegalArgumentException(String.format("table %d page %d is invalid", getId(), pgNo));
+        }
+        FileChannel ch = channel();
+        byte[] blob = deflate(data);
+        long offset;
+        int capacity;
+        if (pgNo < numPages && blob.length <= capacities[pgNo]) {
+            offset = offsets[pgNo];
+            capacity = capacities[pgNo];
+        } else {
+            // leave room for the page to fill up a little before it moves again
+            capacity = blob.length + blob.length / 4 + 16;
+            if (pgNo / DIR_ENTRIES >= dirBlocks.size()) {
+                appendDirectoryBlock(ch);
+            }
+            offset = fileEnd;
+            fileEnd += capacity;
+        }
+        writeFully(ch, ByteBuffer.wrap(blob), offset);
+        // the directory entry is only updated once the blob is on disk
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_BYTES);
+        entry.putLong(offset).putInt(blob.length).putInt(capacity);
+        entry.flip();
+        writeFully(ch, entry, dirBlocks.get(pgNo / DIR_ENTRIES) + 8 + (long) (pgNo % DIR_ENTRIES) * ENTRY_BYTES);
+        setEntry(pgNo, offset, blob.length, capacity);
+    }
+
+    private void appendDirectoryBlock(FileChannel ch) throws IOException {
+        long block = fileEnd;
+        writeFully(ch, ByteBuffer.allocate(DIR_BYTES), block);
+        fileEnd += DIR_BYTES;
+        ByteBuffer next = ByteBuffer.allocate(8);
+        next.putLong(block);
+        next.flip();
+        writeFully(ch, next, dirBlocks.get(dirBlocks.size() - 1));
+        dirBlocks.add(block);
+    }
+
+    @Override
+    public void writePages(List<Page> pages) throws IOException {
+        for (Page page : pages) {
+            writePage(page);
+        }
+    }
+
+    @Override
+    public int numPages() {
+        try {
+            synchronized (this) {
+                directory();
+                return numPages;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    int cachedNumPages() {
+        return numPages();
+    }
+
+    /**
+     * Memory-mapped scans need page images on disk, so they can not be
+     * enabled on a compressed file.
+     *
+     * @throws UnsupportedOperationException if enabled is true
+     */
+    @Override
+    public void setMemoryMappedScans(boolean enabled) {
+        if (enabled) {
+            throw new UnsupportedOperationException("compressed heap files can not be memory mapped");
+        }
+    }
+}
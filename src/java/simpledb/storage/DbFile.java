@@ -33,6 +33,21 @@ public interface DbFile {
      */
     void writePage(Page p) throws IOException;
 
+    /**
+     * Push the specified pages to disk. The pages all belong to this file
+     * and are given in increasing page number order, so an implementation
+     * may coalesce runs of adjacent pages into a single write. The default
+     * implementation writes them one at a time.
+     *
+     * @param pages The pages to write.
+     * @throws IOException if a write fails
+     */
+    default void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages) {
+            writePage(p);
+        }
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -0,0 +1,138 @@
+package simpledb.storage;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * FreeSpaceMap tracks the number of free tuple slots on every page of a
+ * HeapFile so that inserts can go straight to a page with room instead of
+ * locking and reading every page in turn.
+ * <p>
+ * The counts are hints: they are updated as HeapPages gain and lose tuples
+ * in memory (including by transactions that later abort) and whenever a
+ * page is read from disk, so callers must still check the page itself
+ * before inserting and report back what they found.
+ * <p>
+ * The map lives in memory and is saved next to the heap file (as
+ * <code>&lt;file&gt;.fsm</code>) at checkpoints. On first use it is loaded
+ * from that file, or rebuilt from the page headers if the file is missing
+ * or was written for a different version of the heap file.
+ *
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+    private final File file;
+
+    /** free slot count per page; entries at or beyond numPages are unused */
+    private int[] free = new int[16];
+    private int numPages = 0;
+    /** no page below this one has free slots */
+    private int firstFree = 0;
+
+    /**
+     * Creates an empty free space map backed by the specified file.
+     *
+     * @param file where the map is saved, see {@link #save}
+     */
+    public FreeSpaceMap(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return the file this map is saved to
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the number of pages this map has entries for
+     */
+    public synchronized int numPages() {
+        return numPages;
+    }
+
+    /**
+     * @return the recorded number of free slots on page pgNo, or 0 if the
+     *         page is not in the map
+     */
+    public synchronized int getFreeSlots(int pgNo) {
+        return pgNo >= 0 && pgNo < numPages ? free[pgNo] : 0;
+    }
+
+    /**
+     * Records that page pgNo has freeSlots empty slots, adding the page to
+     * the map if needed.
+     */
+    public synchronized void update(int pgNo, int freeSlots) {
+        if (pgNo >= free.length) {
+            free = Arrays.copyOf(free, Math.max(pgNo + 1, free.length * 2));
+        }
+        free[pgNo] = freeSlots;
+        numPages = Math.max(numPages, pgNo + 1);
+        if (freeSlots > 0 && pgNo < firstFree) {
+            firstFree = pgNo;
+        }
+    }
+
+    /**
+     * Returns the first page at or after start that is recorded as having
+     * at least one free slot.
+     *
+     * @return a page number, or -1 if no such page is known
+     */
+    public synchronized int findPageWithSpace(int start) {
+        int i = Math.max(start, firstFree);
+        while (i < numPages && free[i] <= 0) {
+            i++;
+        }
+        if (start <= firstFree) {
+            // everything before i was full
+            firstFree = i;
+        }
+        return i < numPages ? i : -1;
+    }
+
+    /**
+     * Loads the map saved for a heap file of the specified length and page
+     * size.
+     *
+     * @return false if there is no saved map or it belongs to a different
+     *         version of the heap file; the map is left unchanged then
+     */
+    public synchronized boolean load(long dataLength, int pageSize) throws IOException {
+        if (!file.exists()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != pageSize || in.readLong() != dataLength) {
+                return false;
+            }
+            int n = in.readInt();
+            int[] counts = new int[Math.max(16, n)];
+            for (int i = 0; i < n; i++) {
+                counts[i] = in.readInt();
+            }
+            free = counts;
+            numPages = n;
+            firstFree = 0;
+            return true;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Saves the map for a heap file of the specified length and page size.
+     */
+    public synchronized void save(long dataLength, int pageSize) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(pageSize);
+            out.writeLong(dataLength);
+            out.writeInt(numPages);
+            for (int i = 0; i < numPages; i++) {
+                out.writeInt(free[i]);
+            }
+        }
+    }
+}
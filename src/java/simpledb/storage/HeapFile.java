@@ -8,7 +8,13 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -23,7 +29,39 @@ import java.util.*;
 public class HeapFile implements DbFile {
     private File file;
     private TupleDesc td;
+    /** Whether pages use the column-by-column layout of a PaxHeapPage. */
+    private final boolean columnar;
 
+    /** Long-lived channel for page I/O, opened lazily by {@link #channel()}. */
+    private volatile FileChannel channel;
+    /** Page count cached from the last size check or write; -1 if unknown. */
+    private final AtomicInteger pageCount = new AtomicInteger(-1);
+
+    /** Free slot counts per page, loaded lazily by {@link #getFreeSpaceMap()}. */
+    private volatile FreeSpaceMap freeSpaceMap;
+
+    /** Bytes covered by one memory-mapped segment of the file. */
+    private static final long MAP_SEGMENT_BYTES = 64L << 20;
+
+    /** Whether read-only scans read pages from a memory mapping of the file. */
+    private volatile boolean memoryMapped = false;
+    /** Mapped segments by segment number, see {@link #mappedSegment(int)}. */
+    private final ConcurrentHashMap<Integer, MappedSegment> segments = new ConcurrentHashMap<>();
+
+    /** A read-only mapping of a run of whole pages of the file. */
+    private static class MappedSegment {
+        final MappedByteBuffer buffer;
+        final int pageSize;
+        final int firstPage;
+        final int numPages;
+
+        MappedSegment(MappedByteBuffer buffer, int pageSize, int firstPage, int numPages) {
+            this.buffer = buffer;
+            this.pageSize = pageSize;
+            this.firstPage = firstPage;
+            this.numPages = numPages;
+        }
+    }
 
 
     /**
@@ -34,9 +72,25 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file whose pages store
+     * tuples either row by row or column by column.
+     *
+     * @param columnar
+     *            whether the pages of the file have the layout of a
+     *            {@link PaxHeapPage}; only possible for fixed-size tuples
+     */
+    public HeapFile(File f, TupleDesc td, boolean columnar) {
         // some code goes here
+        if (columnar && td.isVariableLength()) {
+            throw new IllegalArgumentException("columnar heap files need fixed-size tuples");
+        }
         this.file = f;
         this.td = td;
+        this.columnar = columnar;
     }
 
     /**
@@ -73,69 +127,342 @@ public class HeapFile implements DbFile {
         return this.td;
     }
 
+    /**
+     * @return true if the pages of this file store their tuples column by
+     *         column, see {@link PaxHeapPage}
+     */
+    public boolean isColumnar() {
+        return columnar;
+    }
+
+    /**
+     * Returns the channel used for all page I/O on this file, opening it on
+     * first use. The channel stays open for the lifetime of the HeapFile so
+     * page reads and writes do not pay for an open/close each; positional
+     * reads and writes on a FileChannel are safe to issue concurrently.
+     */
+    FileChannel channel() throws IOException {
+        FileChannel ch = channel;
+        if (ch == null) {
+            synchronized (this) {
+                ch = channel;
+                if (ch == null) {
+                    ch = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                            StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    channel = ch;
+                }
+            }
+        }
+        return ch;
+    }
+
+    /**
+     * Closes the channel backing this file. A later page access reopens it.
+     */
+    public synchronized void close() throws IOException {
+        segments.clear();
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Enables or disables memory-mapped scans. When enabled, read-only
+     * iterators over this file still lock every page through the
+     * BufferPool, but pages that are not resident in the pool are decoded
+     * straight from a read-only mapping of the file instead of being read
+     * into and cached by the pool; the OS page cache does the caching.
+     * A page that is resident (in particular a dirty one) is always taken
+     * from the pool.
+     */
+    public void setMemoryMappedScans(boolean enabled) {
+        this.memoryMapped = enabled;
+        if (!enabled) {
+            segments.clear();
+        }
+    }
+
+    /**
+     * @return true if read-only scans read from a memory mapping of this file
+     */
+    public boolean isMemoryMappedScans() {
+        return memoryMapped;
+    }
+
+    /**
+     * Returns the mapped segment holding page pgNo, mapping (or remapping,
+     * if the file has grown past the existing mapping) as needed.
+     */
+    private MappedSegment mappedSegment(int pgNo) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        int pagesPerSegment = (int) Math.max(1, MAP_SEGMENT_BYTES / pageSize);
+        int segNo = pgNo / pagesPerSegment;
+        MappedSegment seg = segments.get(segNo);
+        if (seg != null && seg.pageSize == pageSize && pgNo < seg.firstPage + seg.numPages) {
+            return seg;
+        }
+        int firstPage = segNo * pagesPerSegment;
+        // never map beyond the end of the file: a mapping past EOF would extend it
+        int mapPages = Math.min(pagesPerSegment, numPages() - firstPage);
+        if (pgNo >= firstPage + mapPages) {
+            throw new IllegalArgumentException(String.format("table %d page %d is invalid", getId(), pgNo));
+        }
+        MappedByteBuffer buf = channel().map(FileChannel.MapMode.READ_ONLY,
+                (long) firstPage * pageSize, (long) mapPages * pageSize);
+        seg = new MappedSegment(buf, pageSize, firstPage, mapPages);
+        segments.put(segNo, seg);
+        return seg;
+    }
+
+    /**
+     * Builds a HeapPage from the memory mapping of this file without going
+     * through the BufferPool. The bytes are copied out of the mapping so
+     * the page does not change underneath its tuples if the file is
+     * written later.
+     */
+    HeapPage readMappedPage(HeapPageId pid) throws IOException {
+        MappedSegment seg = mappedSegment(pid.getPageNumber());
+        byte[] data = new byte[seg.pageSize];
+        ByteBuffer view = seg.buffer.duplicate();
+        view.position((pid.getPageNumber() - seg.firstPage) * seg.pageSize);
+        view.get(data);
+        return HeapPage.create(pid, data);
+    }
+
+    /**
+     * Returns the free space map of this file, loading it from its saved
+     * copy or rebuilding it from the page headers on first use.
+     */
+    public FreeSpaceMap getFreeSpaceMap() throws IOException {
+        FreeSpaceMap fsm = freeSpaceMap;
+        if (fsm == null) {
+            synchronized (this) {
+                fsm = freeSpaceMap;
+                if (fsm == null) {
+                    fsm = new FreeSpaceMap(new File(file.getPath() + ".fsm"));
+                    if (!fsm.load(channel().size(), BufferPool.getPageSize())) {
+                        rebuildFreeSpaceMap(fsm);
+                    }
+                    freeSpaceMap = fsm;
+                }
+            }
+        }
+        return fsm;
+    }
+
+    /**
+     * @return the free space map if it has been loaded, null otherwise
+     */
+    FreeSpaceMap loadedFreeSpaceMap() {
+        return freeSpaceMap;
+    }
+
+    /**
+     * Fills fsm from the header of every page on disk.
+     */
+    private void rebuildFreeSpaceMap(FreeSpaceMap fsm) throws IOException {
+        byte[] header = new byte[HeapPage.getHeaderSize(td)];
+        int n = numPages();
+        for (int pgNo = 0; pgNo < n; pgNo++) {
+            readPageHeader(pgNo, header);
+            fsm.update(pgNo, HeapPage.countEmptySlots(td, header));
+        }
+    }
+
+    /**
+     * Reads the first header.length bytes of page pgNo into header, without
+     * reading the rest of the page.
+     */
+    void readPageHeader(int pgNo, byte[] header) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(header);
+        long offset = (long) pgNo * BufferPool.getPageSize();
+        FileChannel ch = channel();
+        while (buf.hasRemaining() && ch.read(buf, offset + buf.position()) >= 0) {
+            // keep reading
+        }
+    }
+
+    /**
+     * Saves the free space map next to this file, if it has been loaded,
+     * so the next run does not have to rebuild it. Called at checkpoints.
+     */
+    public void saveFreeSpaceMap() throws IOException {
+        FreeSpaceMap fsm = freeSpaceMap;
+        if (fsm != null) {
+            fsm.save(channel().size(), BufferPool.getPageSize());
+        }
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
         int tableId = pid.getTableId();
         int pgNo = pid.getPageNumber();
-        int offset = pgNo * BufferPool.getPageSize();
-        RandomAccessFile randomAccessFile = null;
-
-        try{
-            randomAccessFile = new RandomAccessFile(file,"r");
-            // 起码有pgNo页那么大小就应该大于pgNo
-            if((long) (pgNo + 1) *BufferPool.getPageSize() > randomAccessFile.length()){
-                randomAccessFile.close();
-                throw new IllegalArgumentException(String.format("table %d page %d is invalid", tableId, pgNo));
-            }
-            byte[] bytes = new byte[BufferPool.getPageSize()];
-            // 移动偏移量到文件开头，并计算是否change
-            randomAccessFile.seek(offset);
-            int read = randomAccessFile.read(bytes,0,BufferPool.getPageSize());
-            // Do not load the entire table into memory on the open() call
-            // -- this will cause an out of memory error for very large tables.
-            if(read != BufferPool.getPageSize()){
-                throw new IllegalArgumentException(String.format("table %d page %d read %d bytes not equal to BufferPool.getPageSize() ", tableId, pgNo, read));
-            }
-            HeapPageId id = new HeapPageId(pid.getTableId(),pid.getPageNumber());
-            return new HeapPage(id,bytes);
-        }catch (IOException e){
-            e.printStackTrace();
-        }finally {
-            try{
-                if(randomAccessFile != null){
-                    randomAccessFile.close();
-                }
-            }catch (Exception e){
-                e.printStackTrace();
+        try {
+            HeapPageId id = new HeapPageId(tableId, pgNo);
+            return loaded(HeapPage.create(id, readPageData(pgNo)));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(String.format("table %d page %d is invalid", tableId, pgNo), e);
+        }
+    }
+
+    /**
+     * Reads a page into frame, which must hold exactly one page, and returns
+     * a HeapPage over the frame without copying it. Used by BufferPools
+     * that keep pages off-heap.
+     */
+    HeapPage readPage(HeapPageId pid, ByteBuffer frame) {
+        try {
+            readPageData(pid.getPageNumber(), frame.duplicate());
+            return loaded(HeapPage.create(pid, frame));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(String.format("table %d page %d is invalid",
+                    pid.getTableId(), pid.getPageNumber()), e);
+        }
+    }
+
+    private HeapPage loaded(HeapPage page) {
+        FreeSpaceMap fsm = freeSpaceMap;
+        if (fsm != null) {
+            // the on-disk state is the best hint we have for this page
+            fsm.update(page.getId().getPageNumber(), page.getNumEmptySlots());
+        }
+        return page;
+    }
+
+    /**
+     * Reads the raw bytes of page pgNo with a single positional read.
+     *
+     * @throws IllegalArgumentException if the page lies beyond the end of the file
+     */
+    byte[] readPageData(int pgNo) throws IOException {
+        // Do not load the entire table into memory on the open() call
+        // -- this will cause an out of memory error for very large tables.
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize());
+        readPageData(pgNo, buf);
+        return buf.array();
+    }
+
+    /**
+     * Reads the raw bytes of page pgNo into the remaining space of dst,
+     * which must be one page.
+     *
+     * @throws IllegalArgumentException if the page lies beyond the end of the file
+     */
+    void readPageData(int pgNo, ByteBuffer dst) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        // 起码有pgNo页那么大小就应该大于pgNo; only ask the OS when the cached count says no
+        if (pgNo < 0 || (pgNo >= cachedNumPages() && pgNo >= numPages())) {
+            throw new IllegalArgumentException(String.format("table %d page %d is invalid", getId(), pgNo));
+        }
+        long offset = (long) pgNo * pageSize - dst.position();
+        FileChannel ch = channel();
+        while (dst.hasRemaining()) {
+            if (ch.read(dst, offset + dst.position()) < 0) {
+                throw new IllegalArgumentException(String.format("table %d page %d read %d bytes not equal to BufferPool.getPageSize() ",
+                        getId(), pgNo, dst.position()));
             }
         }
-        throw new IllegalArgumentException(String.format("table %d page %d is invalid", tableId, pgNo));
+    }
+
+    /**
+     * Writes data as page pgNo with a single positional write, extending the
+     * cached page count if the file grew.
+     */
+    void writePageData(int pgNo, byte[] data) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        long offset = (long) pgNo * BufferPool.getPageSize();
+        FileChannel ch = channel();
+        while (buf.hasRemaining()) {
+            ch.write(buf, offset + buf.position());
+        }
+        pageCount.accumulateAndGet(pgNo + 1, Math::max);
     }
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
-        PageId pageId = page.getId();
-        int pageNo = pageId.getPageNumber();
-        int offset = pageNo * BufferPool.getPageSize();
-        byte[] pageData = page.getPageData();
+        writePageData(page.getId().getPageNumber(), page.getPageData());
+        page.markDirty(false, null);
+    }
 
-        RandomAccessFile file = new RandomAccessFile(this.file, "rw");
-        file.seek(offset);
-        file.write(pageData);
-        file.close();
+    /**
+     * Writes each run of adjacent pages with a single gathering write.
+     */
+    @Override
+    public void writePages(List<Page> pages) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        int start = 0;
+        while (start < pages.size()) {
+            int end = start + 1;
+            while (end < pages.size()
+                    && pages.get(end).getId().getPageNumber() == pages.get(end - 1).getId().getPageNumber() + 1) {
+                end++;
+            }
+            ByteBuffer[] run = new ByteBuffer[end - start];
+            for (int i = start; i < end; i++) {
+                run[i - start] = ByteBuffer.wrap(pages.get(i).getPageData());
+            }
+            int firstPage = pages.get(start).getId().getPageNumber();
+            FileChannel ch = channel();
+            // gathering writes use the channel position; positional reads and
+            // writes elsewhere do not, so holding this lock is enough
+            synchronized (this) {
+                long remaining = (long) run.length * pageSize;
+                ch.position((long) firstPage * pageSize);
+                while (remaining > 0) {
+                    remaining -= ch.write(run);
+                }
+            }
+            pageCount.accumulateAndGet(firstPage + run.length, Math::max);
+            for (int i = start; i < end; i++) {
+                pages.get(i).markDirty(false, null);
+            }
+            start = end;
+        }
+    }
 
-        page.markDirty(false, null);
+    /**
+     * Appends an empty page to the end of the file.
+     *
+     * @return the page number of the new page
+     */
+    synchronized int appendEmptyPage() throws IOException {
+        int pgNo = numPages();
+        writePageData(pgNo, HeapPage.createEmptyPageData());
+        FreeSpaceMap fsm = freeSpaceMap;
+        if (fsm != null) {
+            fsm.update(pgNo, HeapPage.getNumTuples(td));
+        }
+        return pgNo;
     }
 
     /**
-     * Returns the number of pages in this HeapFile.
+     * Returns the number of pages in this HeapFile. The size is taken from
+     * the open channel and also refreshes the cached page count, so pages
+     * appended to the file by another writer become visible here.
      */
     public int numPages() {
-        return (int) file.length() / BufferPool.getPageSize();
         // some code goes here
+        try {
+            int n = (int) (channel().size() / BufferPool.getPageSize());
+            pageCount.set(n);
+            return n;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the page count as of the last {@link #numPages()} call or write
+     * through this HeapFile, without touching the file system. Iterators use
+     * this on every page step and only call numPages() when they run past it.
+     */
+    int cachedNumPages() {
+        int n = pageCount.get();
+        return n < 0 ? numPages() : n;
     }
 
     // see DbFile.java for javadocs
@@ -143,36 +470,70 @@ public class HeapFile implements DbFile {
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         ArrayList<Page> pageList= new ArrayList<Page>();
-        for(int i=0;i<numPages();++i){
+        // go straight to pages the free space map says have room; its counts
+        // are only hints, so check the page and correct the map if it is full
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        for(int i = fsm.findPageWithSpace(0); i >= 0; i = fsm.findPageWithSpace(i + 1)){
             // took care of getting new page
-            HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid,
+            HeapPage p = (HeapPage) Database.getBufferPool().getPinnedPage(tid,
                     new HeapPageId(this.getId(),i),Permissions.READ_WRITE);
-            if(p.getNumEmptySlots() == 0)
+            if(!insertTuple(tid, p, t, false)) {
+                fsm.update(i, 0);
                 continue;
-            p.insertTuple(t);
+            }
             pageList.add(p);
             return pageList;
         }
         // 如果现有的页都没有空闲的slot，则新起一页
-        BufferedOutputStream bw = new BufferedOutputStream(new FileOutputStream(file,true));
-        byte[] emptyData = HeapPage.createEmptyPageData();
-        bw.write(emptyData);
-        bw.close();
+        int pgNo = appendEmptyPage();
         // 加载进BufferPool
-        HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid,
-                new HeapPageId(getId(),numPages()-1),Permissions.READ_WRITE);
-        p.insertTuple(t);
+        HeapPage p = (HeapPage) Database.getBufferPool().getPinnedPage(tid,
+                new HeapPageId(getId(),pgNo),Permissions.READ_WRITE);
+        insertTuple(tid, p, t, true);
         pageList.add(p);
         return pageList;
         // not necessary for lab1
     }
 
+    /**
+     * Inserts t into page p, pinned by the caller, under the page's
+     * exclusive latch, and marks the page dirty so that it stays in the
+     * pool once it is unpinned. Unpins the page.
+     *
+     * @param mustFit true if p is known to have room, so that a full page
+     *        is an error rather than a reason to try another one
+     * @return false if p had no room for t
+     */
+    private boolean insertTuple(TransactionId tid, HeapPage p, Tuple t, boolean mustFit) throws DbException {
+        BufferPool bufferPool = Database.getBufferPool();
+        bufferPool.latchPage(p.getId(), Permissions.READ_WRITE);
+        try {
+            if (!mustFit && !p.hasRoomFor(t)) {
+                return false;
+            }
+            p.insertTuple(t);
+            p.markDirty(true, tid);
+            return true;
+        } finally {
+            bufferPool.unlatchPage(p.getId(), Permissions.READ_WRITE);
+            bufferPool.unpinPage(p.getId());
+        }
+    }
+
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
-        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+        BufferPool bufferPool = Database.getBufferPool();
+        HeapPage page = (HeapPage) bufferPool.getPinnedPage(tid,
                 t.getRecordId().getPageId(),Permissions.READ_WRITE);
-        page.deleteTuple(t);
+        bufferPool.latchPage(page.getId(), Permissions.READ_WRITE);
+        try {
+            page.deleteTuple(t);
+            page.markDirty(true, tid);
+        } finally {
+            bufferPool.unlatchPage(page.getId(), Permissions.READ_WRITE);
+            bufferPool.unpinPage(page.getId());
+        }
         ArrayList<Page> pages = new ArrayList<>(Collections.singletonList(page));
         return pages;
         // some code goes here
@@ -190,6 +551,16 @@ public class HeapFile implements DbFile {
         BufferPool bufferPool = Database.getBufferPool();
         Iterator<Tuple> iterator;
         int num = 0;
+        /** Page count seen by this scan; refreshed only when the scan reaches it. */
+        int pages = 0;
+        ReadAhead readAhead;
+        /** Page ring of a large read-only scan, or null. */
+        ScanRing ring;
+        /**
+         * The page the scan is reading, pinned so that it is not evicted
+         * under the scan, or null if the scan is not reading a pinned page.
+         */
+        PageId pinned;
 
         public MyIterator(TransactionId id, Permissions permissions) {
             this.tid = id;
@@ -198,26 +569,28 @@ public class HeapFile implements DbFile {
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
-            num = 0;
-            HeapPageId heapPageId = new HeapPageId(getId(), num);
-            HeapPage page = (HeapPage) bufferPool.getPage(tid, heapPageId, permissions);
-            if (page == null) {
-                throw new DbException("null");
-            } else {
-                iterator = page.iterator();
-            }
-
+            unpin();
+            num = -1;
+            pages = cachedNumPages();
+            iterator = Collections.emptyIterator();
+            readAhead = new ReadAhead(bufferPool, getId());
+            ring = permissions == Permissions.READ_ONLY ? bufferPool.newScanRing(pages) : null;
         }
 
         public boolean nextPage() throws TransactionAbortedException, DbException {
+            unpin();
             while (true) {
                 num = num + 1;
-                if (num >= numPages()) {
-                    return false;
+                if (num >= pages) {
+                    // the file may have grown since the scan started
+                    pages = numPages();
+                    if (num >= pages) {
+                        return false;
+                    }
                 }
                 // 跳过空的槽
                 HeapPageId heapPageId = new HeapPageId(getId(), num);
-                HeapPage page = (HeapPage) bufferPool.getPage(tid, heapPageId, permissions);
+                HeapPage page = fetchPage(heapPageId);
                 if (page == null) {
                     continue;
                 }
@@ -225,8 +598,55 @@ public class HeapFile implements DbFile {
                 if (iterator.hasNext()) {
                     return true;
                 }
+                unpin();
+            }
+        }
+
+        private void unpin() {
+            if (pinned != null) {
+                bufferPool.unpinPage(pinned);
+                pinned = null;
             }
         }
+        /**
+         * Gets a page for this scan, from the memory mapping when the file
+         * is in memory-mapped mode, this is a read-only scan and the pool
+         * does not hold the page, and through the BufferPool otherwise.
+         * A scan with a page ring reads through the ring and does not read
+         * ahead, since prefetched pages would take the pool's usual victims.
+         * A page from the BufferPool is pinned, unless it is a copy from a
+         * read-only transaction's snapshot.
+         */
+        private HeapPage fetchPage(HeapPageId pid) throws TransactionAbortedException, DbException {
+            if (bufferPool.readsSnapshot(tid)) {
+                return (HeapPage) bufferPool.getPage(tid, pid, permissions, ring);
+            }
+            if (ring != null && !memoryMapped) {
+                Page page;
+                do {
+                    page = bufferPool.getPage(tid, pid, permissions, ring);
+                } while (!bufferPool.pinPage(page));
+                pinned = pid;
+                return (HeapPage) page;
+            }
+            if (!memoryMapped || permissions != Permissions.READ_ONLY) {
+                readAhead.access(pid.getPageNumber(), pages);
+                Page page = bufferPool.getPinnedPage(tid, pid, permissions);
+                pinned = pid;
+                return (HeapPage) page;
+            }
+            Page cached = bufferPool.getPageIfResident(tid, pid, permissions);
+            if (cached != null && bufferPool.pinPage(cached)) {
+                pinned = pid;
+                return (HeapPage) cached;
+            }
+            try {
+                return readMappedPage(pid);
+            } catch (IOException e) {
+                throw new DbException("unable to read mapped page " + pid.getPageNumber() + ": " + e.getMessage());
+            }
+        }
+
         @Override
         public boolean hasNext() throws DbException, TransactionAbortedException {
             if (iterator == null) {
@@ -242,7 +662,7 @@ public class HeapFile implements DbFile {
         @Override
         public Tuple next()
                 throws DbException, TransactionAbortedException, NoSuchElementException {
-            if (iterator == null) {
+            if (iterator == null || !hasNext()) {
                 throw new NoSuchElementException();
             }
             return iterator.next();
@@ -255,8 +675,8 @@ public class HeapFile implements DbFile {
 
         @Override
         public void close() {
+            unpin();
             iterator = null;
         }
     }
 }
-
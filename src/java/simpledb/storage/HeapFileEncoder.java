@@ -4,8 +4,10 @@ import simpledb.common.Type;
 import simpledb.common.Utility;
 
 import java.io.*;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -68,6 +70,72 @@ public class HeapFileEncoder {
       convert(inFile,outFile,npagebytes,numFields,typeAr,',');
   }
 
+   /** Convert the specified input text file into a binary page file,
+    * optionally in the compressed format read by CompressedHeapFile.
+    *
+    * @see CompressedHeapFile
+    * @param compress whether to write a compressed heap file
+    */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, boolean compress)
+      throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator, compress, false);
+  }
+
+   /** Convert the specified input text file into a binary page file,
+    * optionally with the column-by-column page layout of a PaxHeapPage
+    * and optionally compressed.
+    *
+    * @see PaxHeapPage
+    * @see CompressedHeapFile
+    * @param compress whether to write a compressed heap file
+    * @param columnar whether to write pages in the PAX layout, for a
+    *        table declared "pax" in the catalog
+    */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, boolean compress,
+                 boolean columnar)
+      throws IOException {
+      if (!compress && !columnar) {
+          convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator);
+          return;
+      }
+      if (columnar && new TupleDesc(typeAr).isVariableLength()) {
+          throw new IllegalArgumentException("columnar heap files need fixed-size tuples");
+      }
+      File rows = File.createTempFile("tempTable", ".dat");
+      File pax = File.createTempFile("tempTable", ".pax");
+      try {
+          convert(inFile, rows, npagebytes, numFields, typeAr, fieldSeparator);
+          File plain = rows;
+          if (columnar) {
+              plain = compress ? pax : outFile;
+              toColumnar(rows, plain, npagebytes, typeAr);
+          }
+          if (compress) {
+              CompressedHeapFile.compress(plain, outFile, npagebytes);
+          }
+      } finally {
+          rows.delete();
+          pax.delete();
+      }
+  }
+
+  /**
+   * Rewrites every page of a row-layout heap file in the PAX layout.
+   */
+  private static void toColumnar(File rows, File out, int npagebytes, Type[] typeAr)
+      throws IOException {
+      try (DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(rows)));
+           OutputStream os = new BufferedOutputStream(new FileOutputStream(out))) {
+          byte[] page = new byte[npagebytes];
+          for (long n = rows.length() / npagebytes; n > 0; n--) {
+              is.readFully(page);
+              os.write(PaxHeapPage.fromRowLayout(page, typeAr));
+          }
+      }
+  }
+
    /** Convert the specified input text file into a binary
     * page file. <br>
     * Assume format of the input file is (note that only integer fields are
@@ -93,6 +161,13 @@ public class HeapFileEncoder {
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
 
+      for (int i = 0; i < numFields; i++) {
+          if (typeAr[i] == Type.VARCHAR_TYPE) {
+              convertSlotted(inFile, outFile, numFields, typeAr, fieldSeparator);
+              return;
+          }
+      }
+
       int nrecbytes = 0;
       for (int i = 0; i < numFields ; i++) {
           nrecbytes += typeAr[i].getLen();
@@ -224,4 +299,64 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /**
+   * Converts a text file as {@link #convert(File, File, int, int, Type[], char)}
+   * does, for a table with VARCHAR fields, whose pages have the layout of a
+   * SlottedHeapPage. VARCHAR values are stored in full; they are only cut
+   * off at the declared length of their field when tuples are inserted.
+   * Pages are always BufferPool.getPageSize() bytes, the size
+   * SlottedHeapPage works with.
+   *
+   * @see SlottedHeapPage
+   */
+  private static void convertSlotted(File inFile, File outFile, int numFields,
+                 Type[] typeAr, char fieldSeparator) throws IOException {
+      BufferedReader br = new BufferedReader(new FileReader(inFile));
+      OutputStream os = new BufferedOutputStream(new FileOutputStream(outFile));
+      List<byte[]> records = new ArrayList<>();
+      int recordBytes = 0;
+      int npages = 0;
+      String line;
+      while ((line = br.readLine()) != null) {
+          if (line.isEmpty())
+              continue;
+          String[] values = line.split(Pattern.quote(String.valueOf(fieldSeparator)), -1);
+          ByteArrayOutputStream baos = new ByteArrayOutputStream();
+          DataOutputStream dos = new DataOutputStream(baos);
+          for (int i = 0; i < numFields; i++) {
+              String s = i < values.length ? values[i].trim() : "";
+              if (typeAr[i] == Type.INT_TYPE) {
+                  int v = 0;
+                  try {
+                      v = Integer.parseInt(s);
+                  } catch (NumberFormatException e) {
+                      System.out.println ("BAD LINE : " + s);
+                  }
+                  dos.writeInt(v);
+              } else if (typeAr[i] == Type.STRING_TYPE) {
+                  new StringField(s, Type.STRING_LEN).serialize(dos);
+              } else {
+                  dos.writeInt(s.length());
+                  dos.writeBytes(s);
+              }
+          }
+          byte[] record = baos.toByteArray();
+          if (!SlottedHeapPage.fits(1, record.length))
+              throw new IOException("tuple does not fit on a page: " + line);
+          if (!SlottedHeapPage.fits(records.size() + 1, recordBytes + record.length)) {
+              os.write(SlottedHeapPage.createPageData(records));
+              npages++;
+              records.clear();
+              recordBytes = 0;
+          }
+          records.add(record);
+          recordBytes += record.length;
+      }
+      // as for fixed-size pages, an empty table still gets one empty page
+      if (!records.isEmpty() || npages == 0)
+          os.write(SlottedHeapPage.createPageData(records));
+      br.close();
+      os.close();
+  }
 }
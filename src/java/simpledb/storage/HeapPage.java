@@ -4,8 +4,10 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Catalog;
+import simpledb.common.Type;
 import simpledb.transaction.TransactionId;
 
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.io.*;
 
@@ -22,11 +24,33 @@ public class HeapPage implements Page {
     final HeapPageId pid;
     final TupleDesc td;
     final byte[] header;
-    final Tuple[] tuples;
+    /**
+     * Tuples handed out or inserted so far, by slot, allocated when the
+     * first one is. A used slot whose entry is still null has not been
+     * looked at yet; its tuple is created on demand as a {@link TupleView}
+     * over {@link #data}.
+     */
+    private Tuple[] tuples;
     final int numSlots;
+    /**
+     * The page image this page was created from; never modified. It may be
+     * a frame of the BufferPool's off-heap arena, until
+     * {@link #leaveFrame()} moves it to the heap.
+     */
+    volatile ByteBuffer data;
+    /** The BufferPool frame data is in, or -1 if data is on the heap. */
+    private int frame = -1;
+    final int tupleSize;
 
+    /**
+     * The image of this page before its first change since it was last
+     * clean, or null if it has not changed since: its before image is then
+     * its current contents, serialized only if they are asked for.
+     */
     byte[] oldData;
-    private TransactionId preMarkId;
+    /** The page {@link #getBeforeImage} built, shared until setBeforeImage. */
+    private HeapPage beforeImage;
+    private volatile TransactionId preMarkId;
     private boolean isDirty;
     private final Byte oldDataLock= (byte) 0;
 
@@ -42,34 +66,105 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * Only the header is decoded up front. The page keeps a reference to
+     * data, which must not be modified afterwards, and tuples are decoded
+     * from it lazily, one field at a time, as they are asked for.
+     *
+     * Tables with variable-length fields use a different page layout, see
+     * {@link #create}.
+     *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, wrap(data));
+    }
+
+    /**
+     * Create a HeapPage over a page image that is already in a buffer,
+     * such as a frame of the BufferPool's off-heap arena, without copying
+     * it. The buffer must hold exactly one page, starting at position 0,
+     * and must not be modified while the page uses it.
+     */
+    HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        if (td.isVariableLength()) {
+            throw new IllegalArgumentException("table " + id.getTableId() + " has variable-length tuples");
+        }
         isDirty = false;
         preMarkId = null;
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.tupleSize = td.getSize();
+        this.data = data;
 
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        data.duplicate().get(header);
+
+        // the page is unmodified, so its before image is just the data
+        synchronized(oldDataLock)
+        {
+            oldData = data.hasArray() ? data.array() : null;
         }
-        dis.close();
+    }
 
-        setBeforeImage();
+    /**
+     * Creates a page that uses a layout of its own, for subclasses. The
+     * fixed-size slot arrays of this class are left empty.
+     */
+    HeapPage(HeapPageId id, TupleDesc td, ByteBuffer data) {
+        this.pid = id;
+        this.td = td;
+        this.numSlots = 0;
+        this.tupleSize = 0;
+        this.data = data;
+        this.header = new byte[0];
+        synchronized(oldDataLock)
+        {
+            oldData = data.hasArray() ? data.array() : null;
+        }
+    }
+
+    /**
+     * Wraps a page image read from disk, padding it to a full page.
+     */
+    static ByteBuffer wrap(byte[] data) {
+        if (data.length < BufferPool.getPageSize()) {
+            // the padding at the end of the page may be left off
+            data = Arrays.copyOf(data, BufferPool.getPageSize());
+        }
+        return ByteBuffer.wrap(data);
+    }
+
+    /**
+     * Creates a page of table id.getTableId() from data, using the layout
+     * for the table: a {@link SlottedHeapPage} for tables with VARCHAR
+     * fields, a {@link PaxHeapPage} for columnar HeapFiles, and fixed-size
+     * row slots otherwise.
+     */
+    public static HeapPage create(HeapPageId id, byte[] data) throws IOException {
+        return create(id, wrap(data));
+    }
+
+    /**
+     * Creates a page over a page image in a buffer, as {@link #create(HeapPageId, byte[])}
+     * does, without copying the image.
+     *
+     * @see #HeapPage(HeapPageId, ByteBuffer)
+     */
+    static HeapPage create(HeapPageId id, ByteBuffer data) throws IOException {
+        Catalog catalog = Database.getCatalog();
+        TupleDesc td = catalog.getTupleDesc(id.getTableId());
+        if (td.isVariableLength()) {
+            return new SlottedHeapPage(id, td, data);
+        }
+        DbFile file = catalog.getDatabaseFile(id.getTableId());
+        if (file instanceof HeapFile && ((HeapFile) file).isColumnar()) {
+            return new PaxHeapPage(id, data);
+        }
+        return new HeapPage(id, data);
     }
 
     /** Retrieve the number of tuples on this page.
@@ -77,8 +172,19 @@ public class HeapPage implements Page {
      */
     private int getNumTuples() {
         // some code goes here
-        return (int) Math.floor((BufferPool.getPageSize() * 8.0) / (td.getSize() * 8.0 + 1.0));
+        return getNumTuples(td);
+    }
 
+    /**
+     * Retrieve the number of tuple slots on a page of a table with schema
+     * td, or for variable-length tuples an estimate of how many fit on an
+     * empty page.
+     */
+    static int getNumTuples(TupleDesc td) {
+        if (td.isVariableLength()) {
+            return SlottedHeapPage.estimateFreeSlots(td, BufferPool.getPageSize() - SlottedHeapPage.HEADER_BYTES);
+        }
+        return (int) Math.floor((BufferPool.getPageSize() * 8.0) / (td.getSize() * 8.0 + 1.0));
     }
 
     /**
@@ -94,14 +200,15 @@ public class HeapPage implements Page {
 
     /** Return a view of this page before it was modified
      -- used by recovery */
-    public HeapPage getBeforeImage(){
+    public synchronized HeapPage getBeforeImage(){
         try {
-            byte[] oldDataRef = null;
             synchronized(oldDataLock)
             {
-                oldDataRef = oldData;
+                if (beforeImage == null) {
+                    beforeImage = create(pid, oldData != null ? oldData : getPageData());
+                }
+                return beforeImage;
             }
-            return new HeapPage(pid,oldDataRef);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -110,11 +217,71 @@ public class HeapPage implements Page {
         return null;
     }
 
+    /**
+     * Makes the current contents the before image. They are not copied
+     * here: the first change to the page afterwards captures them, see
+     * {@link #beforeChange()}, so a page that is not changed again never
+     * pays for a copy.
+     */
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-            oldData = getPageData().clone();
+            oldData = null;
+            beforeImage = null;
+        }
+    }
+
+    /**
+     * Captures the before image if this is the first change to the page
+     * since it was last clean. Called with the page's monitor held by
+     * every method that changes the page, before it does so.
+     */
+    void beforeChange() {
+        synchronized(oldDataLock)
+        {
+            if (oldData == null) {
+                oldData = getPageData();
+            }
+        }
+    }
+
+    /**
+     * Records that {@link #data} is the given frame of the BufferPool's
+     * off-heap arena.
+     */
+    synchronized void setFrame(int frame) {
+        this.frame = frame;
+    }
+
+    /**
+     * Moves the page image out of its BufferPool frame onto the heap, so the
+     * frame can be given to another page while this page, and the tuples
+     * handed out from it, stay readable.
+     *
+     * @return the frame the page was in, or -1 if it was not in one
+     */
+    synchronized int leaveFrame() {
+        int f = frame;
+        if (f >= 0) {
+            data = ByteBuffer.wrap(copyData());
+            frame = -1;
         }
+        return f;
+    }
+
+    /**
+     * Copies the page image. Readers of a frame-backed page check that
+     * {@link #data} did not change while they read it: if it did, the page
+     * left its frame meanwhile and the frame may already hold another page.
+     */
+    byte[] copyData() {
+        byte[] out = new byte[BufferPool.getPageSize()];
+        ByteBuffer d;
+        do {
+            d = data;
+            d.duplicate().get(out, 0, out.length);
+        } while (d != data);
+        return out;
     }
 
     /**
@@ -126,39 +293,41 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Returns the file offset, within the page, of the tuple in slot i.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
+    private int tupleOffset(int i) {
+        return header.length + i * tupleSize;
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
-        }
+    /**
+     * Returns the offset, within the page, of field j of the tuple in slot
+     * i. Fields of a tuple are stored next to each other in this layout.
+     */
+    int fieldOffset(int i, int j) {
+        return tupleOffset(i) + td.getFieldOffset(j);
+    }
 
+    /**
+     * Returns the tuple in used slot i, creating a view over the page data
+     * the first time the slot is asked for.
+     */
+    private Tuple tupleAt(int i) {
+        Tuple[] ts = tuples();
+        Tuple t = ts[i];
+        if (t == null) {
+            t = new TupleView(this, i);
+            ts[i] = t;
+        }
         return t;
     }
 
+    private Tuple[] tuples() {
+        if (tuples == null) {
+            tuples = new Tuple[numSlots];
+        }
+        return tuples;
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -167,68 +336,56 @@ public class HeapPage implements Page {
      * array generated by getPageData to the HeapPage constructor and
      * have it produce an identical HeapPage object.
      *
+     * Changes to the page's tuples and this method are synchronized on the
+     * page, so a BufferPool can write the page while its transaction is
+     * still updating it and get a consistent image.
+     *
      * @see #HeapPage
      * @return A byte array correspond to the bytes of this page.
      */
-    public byte[] getPageData() {
+    public synchronized byte[] getPageData() {
         int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
+        // start from the original image; only slots whose contents may have
+        // changed since need to be serialized again
+        byte[] out = copyData();
+        System.arraycopy(header, 0, out, 0, header.length);
 
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(tupleSize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (int i=0; i<numSlots; i++) {
             // empty slot
             if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
+                for (int j=0; j<td.numFields(); j++) {
+                    int offset = fieldOffset(i, j);
+                    Arrays.fill(out, offset, offset + td.getFieldType(j).getLen(), (byte) 0);
                 }
                 continue;
             }
 
-            // non-empty slot
+            // non-empty slot that still matches the original image
+            Tuple t = tuples == null ? null : tuples[i];
+            if (t == null || (t instanceof TupleView && ((TupleView) t).isBackedBy(this, i))) {
+                continue;
+            }
+
             for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
+                Field f = t.getField(j);
+                baos.reset();
                 try {
                     f.serialize(dos);
 
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
+                System.arraycopy(baos.toByteArray(), 0, out, fieldOffset(i, j), td.getFieldType(j).getLen());
             }
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        int padStart = tupleOffset(numSlots);
+        Arrays.fill(out, padStart, len, (byte) 0);
 
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        return out;
     }
 
     /**
@@ -252,23 +409,43 @@ public class HeapPage implements Page {
      *         already empty.
      * @param t The tuple to delete
      */
-    public void deleteTuple(Tuple t) throws DbException {
+    public synchronized void deleteTuple(Tuple t) throws DbException {
         if(t==null || !td.equals(t.getTupleDesc())){
             throw new DbException("the TupleDesc of t is mismatch!--HeapPage");
         }
         int slotId = t.getRecordId().getTupleNumber();
-        if(slotId < 0 || slotId>= tuples.length || tuples[slotId] == null || !isSlotUsed(slotId)){
+        if(slotId < 0 || slotId>= numSlots || !isSlotUsed(slotId)){
             throw new DbException("slot is already null");
         }
-        if(!tuples[slotId].equals(t)){
+        if(!t.getRecordId().getPageId().equals(pid) || !sameContents(tupleAt(slotId), t)){
             throw new DbException("no exist tuple error!");
         }
+        beforeChange();
         markSlotUsed(slotId,false);
-        tuples[slotId] = null;
+        tuples()[slotId] = null;
+        freeSpaceChanged();
         // some code goes here
         // not necessary for lab1
     }
 
+    /**
+     * Returns true if a and b hold equal field values. Tuples handed out by
+     * a scan need not be the same objects as the ones cached on this page
+     * (the page may have been re-read from disk or memory-mapped since), so
+     * deleteTuple matches on contents rather than identity.
+     */
+    boolean sameContents(Tuple a, Tuple b) {
+        if (a == b) {
+            return true;
+        }
+        for (int j = 0; j < td.numFields(); j++) {
+            if (!Objects.equals(a.getField(j), b.getField(j))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Adds the specified tuple to the page;  the tuple should be updated to reflect
      *  that it is now stored on this page.
@@ -276,18 +453,20 @@ public class HeapPage implements Page {
      *         is mismatch.
      * @param t The tuple to add.
      */
-    public void insertTuple(Tuple t) throws DbException {
+    public synchronized void insertTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
         if(t==null || !td.equals(t.getTupleDesc())){
             throw new DbException("the TupleDesc of t is mismatch!--HeapPage");
         }
         for(int i=0;i<numSlots;i++){
-            if(!isSlotUsed(i)&&tuples[i]==null){
+            if(!isSlotUsed(i)){
+                beforeChange();
                 markSlotUsed(i,true);
                 final RecordId recordId = new RecordId(pid, i);
                 t.setRecordId(recordId);
-                tuples[i]=t;
+                tuples()[i]=t;
+                freeSpaceChanged();
                 return;
             }
         }
@@ -321,13 +500,67 @@ public class HeapPage implements Page {
      */
     public int getNumEmptySlots() {
         // some code goes here
-        int res = 0;
-        for (int i = 0; i < numSlots; i ++ ) {
-            if ((header[i / 8] >> (i % 8) & 1) == 0) {
-                res ++;
+        return countEmptySlots(header, numSlots);
+    }
+
+    /**
+     * @return true if t can be added to this page
+     */
+    public boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() > 0;
+    }
+
+    /**
+     * @return how many bytes at the start of a page of a table with schema
+     *         td are needed to count its free slots
+     * @see #countEmptySlots(TupleDesc, byte[])
+     */
+    static int getHeaderSize(TupleDesc td) {
+        if (td.isVariableLength()) {
+            return SlottedHeapPage.HEADER_BYTES;
+        }
+        return (getNumTuples(td) + 7) / 8;
+    }
+
+    /**
+     * Returns the number of empty slots of a page of a table with schema
+     * td, given the first {@link #getHeaderSize(TupleDesc)} bytes of the
+     * page.
+     */
+    static int countEmptySlots(TupleDesc td, byte[] header) {
+        if (td.isVariableLength()) {
+            return SlottedHeapPage.countEmptySlots(td, header);
+        }
+        return countEmptySlots(header, getNumTuples(td));
+    }
+
+    /**
+     * Counts the clear bits among the first numSlots bits of a page header.
+     */
+    static int countEmptySlots(byte[] header, int numSlots) {
+        int used = 0;
+        int fullBytes = numSlots / 8;
+        for (int i = 0; i < fullBytes; i++) {
+            used += Integer.bitCount(header[i] & 0xff);
+        }
+        if (numSlots % 8 != 0) {
+            used += Integer.bitCount(header[fullBytes] & ((1 << (numSlots % 8)) - 1));
+        }
+        return numSlots - used;
+    }
+
+    /**
+     * Tells the free space map of this page's HeapFile, if it has one
+     * loaded, how many free slots the page now has.
+     */
+    void freeSpaceChanged() {
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        if (file instanceof HeapFile) {
+            FreeSpaceMap fsm = ((HeapFile) file).loadedFreeSpaceMap();
+            if (fsm != null) {
+                fsm.update(pid.getPageNumber(), getNumEmptySlots());
             }
         }
-        return res;
     }
 
     /**
@@ -362,14 +595,107 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-        List<Tuple> tuples = new ArrayList<>();
-        int num = getNumTuples();
-        for (int i = 0; i < num; i++) {
-            if (isSlotUsed(i)) {
-                tuples.add(this.tuples[i]);
+        return new Iterator<Tuple>() {
+            private int next = nextUsedSlot(0);
+
+            @Override
+            public boolean hasNext() {
+                return next < numSlots;
+            }
+
+            @Override
+            public Tuple next() {
+                if (next >= numSlots) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = tupleAt(next);
+                next = nextUsedSlot(next + 1);
+                return t;
+            }
+        };
+    }
+
+    private int nextUsedSlot(int from) {
+        int i = from;
+        while (i < numSlots && !isSlotUsed(i)) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * A tuple stored on a HeapPage that decodes each field from the page
+     * data only when the field is first asked for. Setting a field (or the
+     * TupleDesc) first decodes the whole tuple and detaches it from the
+     * page data, after which it behaves like an ordinary Tuple.
+     */
+    static class TupleView extends Tuple {
+        private static final long serialVersionUID = 1L;
+
+        private transient HeapPage page;
+        private final int slot;
+
+        TupleView(HeapPage page, int slot) {
+            super(page.td);
+            this.page = page;
+            this.slot = slot;
+            setRecordId(new RecordId(page.pid, slot));
+        }
+
+        @Override
+        public Field getField(int i) {
+            Field f = super.getField(i);
+            HeapPage p = page;
+            if (f == null && p != null) {
+                Type type = getTupleDesc().getFieldType(i);
+                int offset = p.fieldOffset(slot, i);
+                ByteBuffer d;
+                do {
+                    d = p.data;
+                    f = type.parse(d, offset);
+                } while (d != p.data);
+                super.setField(i, f);
             }
+            return f;
+        }
+
+        @Override
+        public void setField(int i, Field f) {
+            detach();
+            super.setField(i, f);
+        }
+
+        @Override
+        public void resetTupleDesc(TupleDesc td) {
+            page = null;
+            super.resetTupleDesc(td);
+        }
+
+        /**
+         * Decodes every field not decoded yet and stops reading the page data.
+         */
+        void detach() {
+            if (page != null) {
+                for (int i = 0; i < getTupleDesc().numFields(); i++) {
+                    getField(i);
+                }
+                page = null;
+            }
+        }
+
+        /**
+         * @return true if this tuple still reads from the data of the given
+         *         page as the tuple in the given slot, i.e. its contents are
+         *         exactly those bytes
+         */
+        boolean isBackedBy(HeapPage page, int slot) {
+            return this.page == page && this.slot == slot;
+        }
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            detach();
+            out.defaultWriteObject();
         }
-        return tuples.iterator();
     }
 
 }
@@ -0,0 +1,119 @@
+package simpledb.storage;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum) with K = 2. Each page
+ * remembers the times of its last two accesses, and the page to evict is
+ * the one whose second-to-last access is the oldest. Pages accessed only
+ * once, such as the pages of a sequential scan, have no second-to-last
+ * access and are evicted before any page that was hit, oldest first.
+ * <p>
+ * The access history of evicted pages is retained for a while (for as
+ * many pages as the pool holds), so a page that comes back soon after
+ * being evicted is not treated as new.
+ *
+ * @Threadsafe
+ */
+class LRUKEvict implements EvictionPolicy {
+    /** Access history of a page; times come from {@link #clock}. */
+    private static class History {
+        final PageId pid;
+        long last;
+        /** time of the access before last, or 0 if there was none */
+        long previous;
+
+        History(PageId pid) {
+            this.pid = pid;
+        }
+    }
+
+    private static final Comparator<History> BY_BACKWARD_DISTANCE = (a, b) -> {
+        int c = Long.compare(a.previous, b.previous);
+        return c != 0 ? c : Long.compare(a.last, b.last);
+    };
+
+    private final Map<PageId, History> resident = new HashMap<>();
+    /** resident pages, the next one to evict first */
+    private final TreeSet<History> order = new TreeSet<>(BY_BACKWARD_DISTANCE);
+    private final Map<PageId, History> retained;
+    /** how many evicted pages retained remembers */
+    private int capacity;
+    private long clock = 0;
+
+    LRUKEvict(int numPages) {
+        this.capacity = Math.max(1, numPages);
+        this.retained = new LinkedHashMap<PageId, History>(16, 0.75f, false) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PageId, History> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    private void access(History h) {
+        h.previous = h.last;
+        h.last = ++clock;
+    }
+
+    @Override
+    public synchronized void addPage(PageId pid) {
+        if (resident.containsKey(pid)) {
+            return;
+        }
+        History h = retained.remove(pid);
+        if (h == null) {
+            h = new History(pid);
+        }
+        access(h);
+        resident.put(pid, h);
+        order.add(h);
+    }
+
+    @Override
+    public synchronized void pageAccessed(PageId pid) {
+        History h = resident.get(pid);
+        if (h != null) {
+            order.remove(h);
+            access(h);
+            order.add(h);
+        }
+    }
+
+    @Override
+    public synchronized void removePage(PageId pid) {
+        History h = resident.remove(pid);
+        if (h != null) {
+            order.remove(h);
+            retained.put(pid, h);
+        }
+    }
+
+    @Override
+    public synchronized PageId getEvictPage(Predicate<PageId> evictable) {
+        for (History h : order) {
+            if (evictable.test(h.pid)) {
+                return h.pid;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized void resize(int numPages) {
+        capacity = Math.max(1, numPages);
+        Iterator<History> it = retained.values().iterator();
+        while (retained.size() > capacity) {
+            it.next();
+            it.remove();
+        }
+    }
+}
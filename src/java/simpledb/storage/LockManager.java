@@ -0,0 +1,560 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LockManager keeps the shared and exclusive page locks BufferPool takes
+ * for strict two-phase locking.
+ * <p>
+ * A request that cannot be granted waits in the page's queue, in arrival
+ * order, except that a holder upgrading its shared lock goes ahead of the
+ * transactions waiting for the page. Releasing a lock grants it to the
+ * requests at the head of the queue that it is compatible with, and wakes
+ * only their transactions.
+ * <p>
+ * Whenever a transaction blocks, the waits-for graph is searched for a
+ * cycle through it: a transaction waits for the holders of the page it
+ * asked for, and for the transactions queued ahead of it, that it
+ * conflicts with. If there is a cycle, its youngest transaction is chosen
+ * as the victim and its request fails with a TransactionAbortedException;
+ * no other transaction is aborted, however long it waits.
+ * <p>
+ * The lock table is split into stripes by the hash of the page id, each
+ * with its own latch, so that requests for different pages rarely contend.
+ * Shared locks on pages nobody holds exclusively or waits for are taken
+ * and released without a latch, with a compare-and-set on the page's lock
+ * word. The search for deadlocks, which needs a consistent view of all
+ * the waiters, takes every latch; it only runs when a transaction blocks.
+ *
+ * @Threadsafe
+ */
+class LockManager {
+    /** Default number of stripes: a few per core, a power of two. */
+    static final int DEFAULT_STRIPES =
+            Integer.highestOneBit(4 * Math.max(4, Runtime.getRuntime().availableProcessors()) - 1) << 1;
+
+    /** A transaction's request for a lock, queued while it cannot be granted. */
+    private static class Request {
+        final PageId pid;
+        final TransactionId tid;
+        final int lockType;
+        /** Signalled when the request is granted or its transaction is chosen as a victim. */
+        final Condition done;
+        boolean granted;
+        boolean aborted;
+
+        Request(PageId pid, TransactionId tid, int lockType, Condition done) {
+            this.pid = pid;
+            this.tid = tid;
+            this.lockType = lockType;
+            this.done = done;
+        }
+    }
+
+    // the bits of a lock word above the count of shared holders
+    /** Set while a transaction holds the lock exclusively. */
+    private static final int EXCLUSIVE = 1 << 30;
+    /** Set while requests wait in the queue; sends shared requests and releases through the latch. */
+    private static final int QUEUED = 1 << 29;
+    /**
+     * Set, once the lock is free and nobody waits for it, by whoever
+     * takes the state out of the lock table; a request that finds it set
+     * looks the page up again.
+     */
+    private static final int DEAD = 1 << 28;
+    private static final int SHARED_MASK = DEAD - 1;
+
+    /** The holders of a page's lock, and the requests waiting for it. */
+    private static class LockState {
+        /**
+         * The number of shared holders and the EXCLUSIVE, QUEUED and DEAD
+         * bits. Granting and releasing a lock changes it with a
+         * compare-and-set, so that the shared fast paths and the latched
+         * paths agree on who holds the lock.
+         */
+        final AtomicInteger word = new AtomicInteger();
+        /**
+         * The holders and their modes. A shared holder counted by the
+         * fast path shows up here right after its compare-and-set.
+         */
+        final Map<TransactionId, Integer> holders = new ConcurrentHashMap<>();
+        /** Guarded by the stripe's latch. */
+        final Deque<Request> queue = new ArrayDeque<>();
+
+        /**
+         * Sets QUEUED before a request joins the queue, which sends the
+         * shared requests and releases through the latch from then on.
+         * Called with the stripe's latch held.
+         *
+         * @return false if the state has left the lock table
+         */
+        boolean markQueued() {
+            while (true) {
+                int w = word.get();
+                if ((w & DEAD) != 0) {
+                    return false;
+                }
+                if (word.compareAndSet(w, w | QUEUED)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Clears QUEUED once the queue is empty. Called with the stripe's
+         * latch held after requests leave the queue.
+         */
+        void queueChanged() {
+            if (queue.isEmpty()) {
+                word.updateAndGet(w -> w & ~QUEUED);
+            }
+        }
+
+        /**
+         * Grants tid the lock in lockType mode if that is compatible with
+         * the other holders, changing the lock word. Called with the
+         * stripe's latch held.
+         *
+         * @return false if the lock is not compatible, or the state has
+         *         left the lock table
+         */
+        boolean tryGrant(TransactionId tid, int lockType) {
+            Integer held = holders.get(tid);
+            while (true) {
+                int w = word.get();
+                if ((w & DEAD) != 0) {
+                    return false;
+                }
+                int next;
+                if (lockType == PageLock.SHARE) {
+                    if ((w & EXCLUSIVE) != 0) {
+                        return false;
+                    }
+                    next = w + 1;
+                } else {
+                    int others = (w & SHARED_MASK) - (held != null ? 1 : 0);
+                    if ((w & EXCLUSIVE) != 0 || others > 0) {
+                        return false;
+                    }
+                    next = ((w & ~SHARED_MASK) | EXCLUSIVE);
+                }
+                if (word.compareAndSet(w, next)) {
+                    holders.put(tid, lockType);
+                    return true;
+                }
+            }
+        }
+    }
+
+    /** A part of the lock table, with the latch that guards its queues. */
+    private static class Stripe {
+        /** Waiting requests wait on their own conditions of it. */
+        final ReentrantLock latch = new ReentrantLock();
+        final Map<PageId, LockState> lockMap = new ConcurrentHashMap<>();
+    }
+
+    private final Stripe[] stripes;
+    /**
+     * The pages each transaction holds a lock on, so that a transaction's
+     * locks are released without going through the whole lock table.
+     * Changed with compute, so that the threads of a transaction agree.
+     */
+    private final Map<TransactionId, Set<PageId>> heldBy = new ConcurrentHashMap<>();
+    /** The request each blocked transaction waits for. */
+    private final Map<TransactionId, Request> waiting = new ConcurrentHashMap<>();
+
+    LockManager() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * Creates a lock manager whose lock table has the specified number of
+     * stripes; with a single stripe, all the requests that cannot take a
+     * fast path go through one latch.
+     */
+    LockManager(int stripes) {
+        this.stripes = new Stripe[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new Stripe();
+        }
+    }
+
+    private Stripe stripe(PageId pid) {
+        // spread the hash, which a HeapPageId steps by 1000 per page
+        long h = pid.hashCode() * 0x9E3779B97F4A7C15L;
+        return stripes[Math.floorMod((int) (h >>> 32), stripes.length)];
+    }
+
+    /**
+     * Acquires the lock on pid in lockType mode for tid, waiting as long as
+     * it takes unless tid is chosen as the victim of a deadlock.
+     *
+     * @throws TransactionAbortedException if tid was chosen as a deadlock
+     *         victim, or its transaction completed while it waited
+     * @throws InterruptedException if the thread was interrupted while it
+     *         waited, in which case the request is withdrawn
+     */
+    public void acquireLock(PageId pid, TransactionId tid, int lockType)
+            throws InterruptedException, TransactionAbortedException {
+        Stripe stripe = stripe(pid);
+        if (lockType == PageLock.SHARE && acquireShared(stripe, pid, tid)) {
+            return;
+        }
+        Request request;
+        stripe.latch.lock();
+        try {
+            while (true) {
+                LockState state = stripe.lockMap.computeIfAbsent(pid, k -> new LockState());
+                Integer held = state.holders.get(tid);
+                if (held != null && (held == PageLock.EXCLUSIVE || lockType == PageLock.SHARE)) {
+                    return;
+                }
+                // the transactions queued behind a holder wait for it anyway,
+                // so an upgrade does not wait for them
+                if ((held != null || state.queue.isEmpty()) && state.tryGrant(tid, lockType)) {
+                    held(tid, pid);
+                    return;
+                }
+                if (!state.markQueued()) {
+                    // the last shared holder left without the latch
+                    stripe.lockMap.remove(pid, state);
+                    continue;
+                }
+                request = new Request(pid, tid, lockType, stripe.latch.newCondition());
+                if (held != null) {
+                    state.queue.addFirst(request);
+                } else {
+                    state.queue.addLast(request);
+                }
+                waiting.put(tid, request);
+                // a shared holder may have left before QUEUED was set
+                grant(stripe, pid, state);
+                break;
+            }
+        } finally {
+            stripe.latch.unlock();
+        }
+
+        if (!request.granted) {
+            detectDeadlock(request);
+        }
+        stripe.latch.lock();
+        try {
+            try {
+                while (!request.granted && !request.aborted) {
+                    request.done.await();
+                }
+            } finally {
+                if (!request.granted && !request.aborted) {
+                    withdraw(stripe, request);
+                }
+            }
+            if (request.aborted) {
+                throw new TransactionAbortedException();
+            }
+        } finally {
+            stripe.latch.unlock();
+        }
+    }
+
+    /**
+     * Takes a shared lock without the latch if nobody holds the page
+     * exclusively or waits for it.
+     *
+     * @return false if the request has to go through the latch
+     */
+    private boolean acquireShared(Stripe stripe, PageId pid, TransactionId tid) {
+        LockState state;
+        while (true) {
+            state = stripe.lockMap.computeIfAbsent(pid, k -> new LockState());
+            if (state.holders.containsKey(tid)) {
+                return true;
+            }
+            int w = state.word.get();
+            if ((w & DEAD) != 0) {
+                stripe.lockMap.remove(pid, state);
+                continue;
+            }
+            if ((w & (EXCLUSIVE | QUEUED)) != 0 || !state.word.compareAndSet(w, w + 1)) {
+                return false;
+            }
+            break;
+        }
+        if (state.holders.putIfAbsent(tid, PageLock.SHARE) != null) {
+            // another thread of tid got there first
+            releaseShared(stripe, pid, state);
+            return true;
+        }
+        held(tid, pid);
+        return true;
+    }
+
+    /**
+     * Drops a shared holder from the lock word, without the latch unless
+     * requests wait for the page, and takes the state out of the lock table
+     * if it was the last holder.
+     */
+    private void releaseShared(Stripe stripe, PageId pid, LockState state) {
+        while (true) {
+            int w = state.word.get();
+            if ((w & QUEUED) != 0) {
+                break;
+            }
+            if (state.word.compareAndSet(w, w - 1)) {
+                if (w - 1 == 0 && state.word.compareAndSet(0, DEAD)) {
+                    stripe.lockMap.remove(pid, state);
+                }
+                return;
+            }
+        }
+        stripe.latch.lock();
+        try {
+            state.word.decrementAndGet();
+            grant(stripe, pid, state);
+        } finally {
+            stripe.latch.unlock();
+        }
+    }
+
+    /**
+     * Releases tid's lock on pid and grants the lock to the requests it was
+     * holding up.
+     *
+     * @return false if tid did not hold the lock
+     */
+    public boolean releaseLock(PageId pid, TransactionId tid) {
+        if (!release(pid, tid)) {
+            return false;
+        }
+        heldBy.computeIfPresent(tid, (k, held) -> {
+            held.remove(pid);
+            return held.isEmpty() ? null : held;
+        });
+        return true;
+    }
+
+    /**
+     * Drops tid from the holders of pid's lock, leaving the index alone.
+     *
+     * @return false if tid did not hold the lock
+     */
+    private boolean release(PageId pid, TransactionId tid) {
+        Stripe stripe = stripe(pid);
+        LockState state = stripe.lockMap.get(pid);
+        Integer held = state == null ? null : state.holders.remove(tid);
+        if (held == null) {
+            return false;
+        }
+        if (held == PageLock.SHARE) {
+            releaseShared(stripe, pid, state);
+            return true;
+        }
+        stripe.latch.lock();
+        try {
+            state.word.updateAndGet(w -> w & ~EXCLUSIVE);
+            grant(stripe, pid, state);
+        } finally {
+            stripe.latch.unlock();
+        }
+        return true;
+    }
+
+    public boolean holdsExclusive(PageId pid, TransactionId tid) {
+        LockState state = stripe(pid).lockMap.get(pid);
+        Integer held = state == null ? null : state.holders.get(tid);
+        return held != null && held == PageLock.EXCLUSIVE;
+    }
+
+    public boolean holdsLock(PageId pid, TransactionId tid) {
+        LockState state = stripe(pid).lockMap.get(pid);
+        return state != null && state.holders.containsKey(tid);
+    }
+
+    /**
+     * Releases all of tid's locks, in time proportional to their number,
+     * and fails its request if one of its threads is still waiting for a
+     * lock.
+     */
+    public void completeTransaction(TransactionId tid) {
+        Request request = waiting.get(tid);
+        if (request != null) {
+            Stripe stripe = stripe(request.pid);
+            stripe.latch.lock();
+            try {
+                if (!request.granted && !request.aborted) {
+                    abort(stripe, request);
+                }
+            } finally {
+                stripe.latch.unlock();
+            }
+        }
+        Set<PageId> held = heldBy.remove(tid);
+        if (held != null) {
+            for (PageId pid : held) {
+                release(pid, tid);
+            }
+        }
+    }
+
+    /** Records in the index that tid holds a lock on pid. */
+    private void held(TransactionId tid, PageId pid) {
+        heldBy.compute(tid, (k, held) -> {
+            if (held == null) {
+                held = new HashSet<>();
+            }
+            held.add(pid);
+            return held;
+        });
+    }
+
+    /**
+     * Grants the lock to the requests at the head of the page's queue that
+     * are compatible with its holders, in order, and forgets the page once
+     * nobody holds or waits for its lock. Called with the stripe's latch
+     * held.
+     */
+    private void grant(Stripe stripe, PageId pid, LockState state) {
+        for (Iterator<Request> it = state.queue.iterator(); it.hasNext(); ) {
+            Request request = it.next();
+            if (!state.tryGrant(request.tid, request.lockType)) {
+                break;
+            }
+            it.remove();
+            held(request.tid, pid);
+            waiting.remove(request.tid, request);
+            request.granted = true;
+            request.done.signal();
+        }
+        state.queueChanged();
+        if (state.queue.isEmpty() && state.word.compareAndSet(0, DEAD)) {
+            stripe.lockMap.remove(pid, state);
+        }
+    }
+
+    /**
+     * Takes a request out of its page's queue, which may let the requests
+     * behind it be granted. Called with the stripe's latch held.
+     */
+    private void withdraw(Stripe stripe, Request request) {
+        LockState state = stripe.lockMap.get(request.pid);
+        state.queue.remove(request);
+        waiting.remove(request.tid, request);
+        grant(stripe, request.pid, state);
+    }
+
+    /**
+     * Fails a waiting request and wakes its transaction. Called with the
+     * stripe's latch held.
+     */
+    private void abort(Stripe stripe, Request request) {
+        request.aborted = true;
+        withdraw(stripe, request);
+        request.done.signal();
+    }
+
+    /**
+     * Searches the waits-for graph for cycles through the transaction of a
+     * request that has just blocked, since any new cycle goes through it,
+     * and aborts the youngest transaction on each. Takes every latch, in
+     * stripe order, for a consistent view of the waiters.
+     */
+    private void detectDeadlock(Request request) {
+        for (Stripe stripe : stripes) {
+            stripe.latch.lock();
+        }
+        try {
+            // the request may close several cycles at once
+            while (!request.granted && !request.aborted) {
+                Deque<TransactionId> path = new ArrayDeque<>();
+                if (!reaches(request.tid, request.tid, path, new HashSet<>())) {
+                    break;
+                }
+                Request victim = waiting.get(youngest(path));
+                abort(stripe(victim.pid), victim);
+            }
+        } finally {
+            for (int i = stripes.length - 1; i >= 0; i--) {
+                stripes[i].latch.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return the transactions a waiting request waits for: the holders of
+     *         its page, and the transactions queued ahead of it, that it
+     *         conflicts with
+     */
+    private List<TransactionId> blockers(Request request) {
+        List<TransactionId> blockers = new ArrayList<>();
+        LockState state = stripe(request.pid).lockMap.get(request.pid);
+        for (Map.Entry<TransactionId, Integer> h : state.holders.entrySet()) {
+            if (!h.getKey().equals(request.tid)
+                    && (request.lockType == PageLock.EXCLUSIVE || h.getValue() == PageLock.EXCLUSIVE)) {
+                blockers.add(h.getKey());
+            }
+        }
+        for (Request ahead : state.queue) {
+            if (ahead == request) {
+                break;
+            }
+            if (!ahead.tid.equals(request.tid)
+                    && (request.lockType == PageLock.EXCLUSIVE || ahead.lockType == PageLock.EXCLUSIVE)) {
+                blockers.add(ahead.tid);
+            }
+        }
+        return blockers;
+    }
+
+    /**
+     * Depth-first search for a path in the waits-for graph from from to
+     * target, which is left in path if found.
+     */
+    private boolean reaches(TransactionId from, TransactionId target, Deque<TransactionId> path,
+                            Set<TransactionId> visited) {
+        path.addLast(from);
+        Request request = waiting.get(from);
+        if (request != null) {
+            for (TransactionId blocker : blockers(request)) {
+                if (blocker.equals(target)
+                        || (visited.add(blocker) && reaches(blocker, target, path, visited))) {
+                    return true;
+                }
+            }
+        }
+        path.removeLast();
+        return false;
+    }
+
+    /**
+     * @return the transaction that started last, which is aborted to break
+     *         a deadlock since it is likely to have done the least work
+     */
+    private static TransactionId youngest(Iterable<TransactionId> cycle) {
+        TransactionId youngest = null;
+        for (TransactionId tid : cycle) {
+            if (youngest == null || tid.getId() > youngest.getId()) {
+                youngest = tid;
+            }
+        }
+        return youngest;
+    }
+}
+
+class PageLock {
+    public static final int SHARE = 0;
+    public static final int EXCLUSIVE = 1;
+}
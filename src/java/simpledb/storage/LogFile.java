@@ -146,6 +146,15 @@ public class LogFile {
         return totalRecords;
     }
 
+    /**
+     * @return true if tid has logged its BEGIN record and has not committed
+     *         or aborted since, i.e. an abort of tid would roll back its
+     *         updates from this log
+     */
+    public synchronized boolean isLive(TransactionId tid) {
+        return tidToFirstLogRecord.containsKey(tid.getId());
+    }
+
     /**
      * Write an abort record to the log for the specified tid, force
      * the log to disk, and perform a rollback
@@ -286,7 +295,12 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page) pageConsts[0].newInstance(pageArgs);
+            if (HeapPage.class.isAssignableFrom(pageClass)) {
+                // heap pages pick their layout from the table's schema
+                newPage = HeapPage.create((HeapPageId) pid, pageData);
+            } else {
+                newPage = (Page) pageConsts[0].newInstance(pageArgs);
+            }
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e) {
@@ -333,6 +347,8 @@ public class LogFile {
                 Iterator<Long> els = keys.iterator();
                 force();
                 Database.getBufferPool().flushAllPages();
+                saveFreeSpaceMaps();
+                Database.getBufferPool().saveResidency(getResidencyFile());
                 startCpOffset = raf.getFilePointer();
                 raf.writeInt(CHECKPOINT_RECORD);
                 raf.writeLong(-1); //no tid , but leave space for convenience
@@ -362,6 +378,30 @@ public class LogFile {
         logTruncate();
     }
 
+    /**
+     * Save the free space maps of all heap files, so they need not be
+     * rebuilt on the next startup. Called at checkpoints, after the
+     * buffer pool has been flushed.
+     */
+    /**
+     * @return the file every checkpoint, and so a clean shutdown, saves the
+     *         BufferPool's resident pages to, for
+     *         {@link BufferPool#warmUp} after a restart
+     */
+    public File getResidencyFile() {
+        return new File(logFile.getPath() + ".pool");
+    }
+
+    private void saveFreeSpaceMaps() throws IOException {
+        Iterator<Integer> tableIds = Database.getCatalog().tableIdIterator();
+        while (tableIds.hasNext()) {
+            DbFile file = Database.getCatalog().getDatabaseFile(tableIds.next());
+            if (file instanceof HeapFile) {
+                ((HeapFile) file).saveFreeSpaceMap();
+            }
+        }
+    }
+
     /**
      * Truncate any unneeded portion of the log to reduce its space
      * consumption
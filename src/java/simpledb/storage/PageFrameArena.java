@@ -0,0 +1,96 @@
+package simpledb.storage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * PageFrameArena is a fixed set of page-sized frames in direct (off-heap)
+ * memory, which a BufferPool reads pages into so that the page images it
+ * caches are neither on the Java heap nor scanned by the garbage
+ * collector. The frames are allocated once, when the arena is created, in
+ * chunks of at most {@link #MAX_CHUNK_BYTES} bytes since a single
+ * ByteBuffer cannot exceed 2GB. Direct memory is limited by the JVM
+ * option -XX:MaxDirectMemorySize, which defaults to the maximum heap size.
+ * <p>
+ * Free frames are handed out in the order they were released, so a frame
+ * stays unused for as long as possible after the page in it was dropped.
+ *
+ * @Threadsafe
+ */
+class PageFrameArena {
+    static final long MAX_CHUNK_BYTES = 1L << 30;
+
+    private final int pageSize;
+    private final ByteBuffer[] frames;
+    /** circular queue of free frame numbers */
+    private final int[] free;
+    private int head;
+    private int numFree;
+
+    /**
+     * Allocates numFrames frames of pageSize bytes each.
+     *
+     * @throws OutOfMemoryError if there is not enough direct memory
+     */
+    PageFrameArena(int numFrames, int pageSize) {
+        this.pageSize = pageSize;
+        this.frames = new ByteBuffer[numFrames];
+        this.free = new int[numFrames];
+        int perChunk = (int) Math.max(1, MAX_CHUNK_BYTES / pageSize);
+        ByteBuffer chunk = null;
+        for (int i = 0; i < numFrames; i++) {
+            if (i % perChunk == 0) {
+                chunk = ByteBuffer.allocateDirect(Math.min(perChunk, numFrames - i) * pageSize);
+            }
+            chunk.limit((i % perChunk + 1) * pageSize);
+            chunk.position((i % perChunk) * pageSize);
+            frames[i] = chunk.slice();
+            free[i] = i;
+        }
+        numFree = numFrames;
+    }
+
+    /**
+     * @return the size of the frames of this arena
+     */
+    int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @return the number of a free frame, which now belongs to the caller,
+     *         or -1 if all frames are in use
+     */
+    synchronized int acquire() {
+        if (numFree == 0) {
+            return -1;
+        }
+        int frame = free[head];
+        head = (head + 1) % free.length;
+        numFree--;
+        return frame;
+    }
+
+    /**
+     * @return the buffer of frame i, positioned at its start
+     */
+    ByteBuffer frame(int i) {
+        ByteBuffer f = frames[i].duplicate();
+        f.clear();
+        return f;
+    }
+
+    /**
+     * Returns frame i, acquired earlier, to the free frames.
+     */
+    synchronized void release(int i) {
+        free[(head + numFree) % free.length] = i;
+        numFree++;
+    }
+
+    /**
+     * @return the number of frames not in use
+     */
+    synchronized int getNumFree() {
+        return numFree;
+    }
+}
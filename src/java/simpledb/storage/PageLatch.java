@@ -0,0 +1,23 @@
+package simpledb.storage;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The pin count and latch of a page cached by a BufferPool.
+ * <p>
+ * A pinned page is not evicted, so its object, and with an off-heap pool
+ * the frame its image is in, stay the pool's until it is unpinned. The
+ * latch is a short-term shared/exclusive lock on the page's contents,
+ * held while they are read or changed and released straight after,
+ * unlike the transaction locks of the LockManager, which are held until
+ * commit. A latch may only be taken on a pinned page, and nothing that
+ * may wait for another page, such as a request to the BufferPool, may be
+ * done while holding one.
+ *
+ * @Threadsafe
+ */
+class PageLatch {
+    final AtomicInteger pins = new AtomicInteger();
+    final ReentrantReadWriteLock latch = new ReentrantReadWriteLock();
+}
@@ -0,0 +1,77 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * PaxHeapPage is the HeapPage layout of columnar HeapFiles. It has the same
+ * header and the same number of slots as a row-layout HeapPage, but instead
+ * of storing each tuple's fields next to each other it stores each column
+ * in a contiguous minipage: after the header come the values of field 0
+ * for every slot, then the values of field 1 for every slot, and so on.
+ * <p>
+ * Tuples on the page decode their fields lazily (see
+ * {@link HeapPage.TupleView}), so a scan whose operators only look at a
+ * couple of columns only decodes those, reading them from consecutive
+ * bytes instead of striding across whole rows.
+ *
+ * @see HeapFile#isColumnar()
+ */
+public class PaxHeapPage extends HeapPage {
+    /** offset within the page of each column's minipage */
+    private final int[] columnStart;
+
+    /**
+     * Create a PaxHeapPage from a set of bytes of data read from disk.
+     */
+    public PaxHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, wrap(data));
+    }
+
+    /**
+     * Create a PaxHeapPage over a page image in a buffer.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, ByteBuffer)
+     */
+    PaxHeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        super(id, data);
+        columnStart = columnStarts(td, header.length, numSlots);
+    }
+
+    private static int[] columnStarts(TupleDesc td, int headerSize, int numSlots) {
+        int[] starts = new int[td.numFields()];
+        for (int j = 0; j < starts.length; j++) {
+            starts[j] = headerSize + numSlots * td.getFieldOffset(j);
+        }
+        return starts;
+    }
+
+    @Override
+    int fieldOffset(int i, int j) {
+        return columnStart[j] + i * td.getFieldType(j).getLen();
+    }
+
+    /**
+     * Rearranges the image of a row-layout page of a table with the
+     * specified field types into the layout of a PaxHeapPage. Used by
+     * {@link HeapFileEncoder}.
+     */
+    static byte[] fromRowLayout(byte[] rowPage, Type[] types) {
+        TupleDesc td = new TupleDesc(types);
+        int numSlots = (rowPage.length * 8) / (td.getSize() * 8 + 1);
+        int headerSize = (numSlots + 7) / 8;
+        int[] starts = columnStarts(td, headerSize, numSlots);
+        byte[] out = new byte[rowPage.length];
+        System.arraycopy(rowPage, 0, out, 0, headerSize);
+        for (int i = 0; i < numSlots; i++) {
+            int row = headerSize + i * td.getSize();
+            for (int j = 0; j < types.length; j++) {
+                int len = types[j].getLen();
+                System.arraycopy(rowPage, row + td.getFieldOffset(j), out, starts[j] + i * len, len);
+            }
+        }
+        return out;
+    }
+}
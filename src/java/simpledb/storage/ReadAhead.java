@@ -0,0 +1,65 @@
+package simpledb.storage;
+
+/**
+ * ReadAhead detects sequential page access by a scan and asks the
+ * BufferPool to prefetch the pages ahead of it, so that by the time the
+ * scan gets to a page it is usually already cached.
+ * <p>
+ * The read-ahead window adapts to how well prefetching is working: it
+ * doubles every time the scan reaches a prefetched page that is resident
+ * and halves every time a prefetched page is not there yet (or was
+ * evicted again before the scan got to it). It never exceeds
+ * {@link BufferPool#getReadAheadPages()} or a quarter of the pool.
+ * Non-sequential access resets the window.
+ */
+class ReadAhead {
+    private final BufferPool bufferPool;
+    private final int tableId;
+
+    private int window = 1;
+    private int lastPage = -1;
+    /** highest page number prefetch has been requested for */
+    private int prefetchedUpTo = -1;
+
+    ReadAhead(BufferPool bufferPool, int tableId) {
+        this.bufferPool = bufferPool;
+        this.tableId = tableId;
+    }
+
+    /**
+     * Called by the scan just before it fetches page pgNo.
+     *
+     * @param pgNo the page about to be fetched
+     * @param numPages the number of pages in the file
+     */
+    void access(int pgNo, int numPages) {
+        int maxWindow = Math.min(BufferPool.getReadAheadPages(), bufferPool.getNumPages() / 4);
+        boolean sequential = pgNo == lastPage + 1;
+        lastPage = pgNo;
+        if (maxWindow <= 0 || !sequential) {
+            window = 1;
+            prefetchedUpTo = pgNo;
+            return;
+        }
+        if (pgNo <= prefetchedUpTo) {
+            if (bufferPool.isResident(new HeapPageId(tableId, pgNo))) {
+                window = Math.min(window * 2, maxWindow);
+            } else {
+                window = Math.max(window / 2, 1);
+            }
+        }
+        window = Math.min(window, maxWindow);
+        int target = Math.min(pgNo + window, numPages - 1);
+        for (int p = Math.max(prefetchedUpTo + 1, pgNo + 1); p <= target; p++) {
+            bufferPool.prefetchPage(new HeapPageId(tableId, p));
+        }
+        prefetchedUpTo = Math.max(prefetchedUpTo, target);
+    }
+
+    /**
+     * @return the current read-ahead window, in pages
+     */
+    int getWindow() {
+        return window;
+    }
+}
@@ -0,0 +1,73 @@
+package simpledb.storage;
+
+/**
+ * ScanRing is a small ring of BufferPool slots that a large sequential
+ * scan reads its pages through, like PostgreSQL's bulk-read buffer access
+ * strategy. Once the ring is full, every page the scan reads from disk
+ * takes the place of the oldest page it read, instead of a page chosen by
+ * the pool's eviction policy, so the scan uses at most the ring's size in
+ * pages and leaves the rest of the pool alone.
+ * <p>
+ * The ring of a partitioned pool has a ring of slots per partition, since
+ * a page can only take the place of a page of its own partition.
+ * <p>
+ * A ring belongs to a single scan and is not thread-safe.
+ */
+class ScanRing {
+    private final PageId[][] slots;
+    private final int[] next;
+
+    ScanRing(int size) {
+        this(size, 1);
+    }
+
+    /**
+     * Creates a ring of size slots for each of partitions partitions.
+     */
+    ScanRing(int size, int partitions) {
+        slots = new PageId[partitions][size];
+        next = new int[partitions];
+    }
+
+    /**
+     * @return the page the next page read through this ring replaces, or
+     *         null if the ring is not full yet
+     */
+    PageId victim() {
+        return victim(0);
+    }
+
+    /**
+     * @return the page the next page of the specified partition read
+     *         through this ring replaces, or null if the partition's ring
+     *         is not full yet
+     */
+    PageId victim(int partition) {
+        return slots[partition][next[partition]];
+    }
+
+    /**
+     * Records that pid was read through this ring, in place of
+     * {@link #victim()}.
+     */
+    void add(PageId pid) {
+        add(0, pid);
+    }
+
+    /**
+     * Records that pid was read through this ring into the specified
+     * partition, in place of {@link #victim(int)}.
+     */
+    void add(int partition, PageId pid) {
+        PageId[] ring = slots[partition];
+        ring[next[partition]] = pid;
+        next[partition] = (next[partition] + 1) % ring.length;
+    }
+
+    /**
+     * @return the number of pages this ring holds when full
+     */
+    int size() {
+        return slots.length * slots[0].length;
+    }
+}
@@ -0,0 +1,380 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * SlottedHeapPage is the layout of HeapPages of tables with VARCHAR fields,
+ * whose tuples vary in size. A VARCHAR value takes four bytes of length
+ * plus one byte per character, so a page holds as many tuples as their
+ * actual values allow rather than as many maximum-size tuples as fit.
+ * <p>
+ * The page starts with a two-byte slot count and the two-byte offset of
+ * the first record, followed by a slot directory with a two-byte record
+ * offset and a two-byte record length per slot; a slot with offset 0 is
+ * empty. Records are packed at the end of the page, growing towards the
+ * slot directory. A record holds the fields of a tuple in order: INT and
+ * STRING fields as in a fixed-size tuple, and VARCHAR fields as their
+ * length followed by their characters. An all-zero page is empty.
+ * <p>
+ * Slot numbers are the tuple numbers of RecordIds, so a tuple keeps its
+ * slot for as long as it is on the page; only the records move when the
+ * page is written out, which packs them again.
+ *
+ * @see HeapPage#create
+ */
+public class SlottedHeapPage extends HeapPage {
+    static final int HEADER_BYTES = 4;
+    static final int SLOT_BYTES = 4;
+
+    private int slotCount;
+    /** record offset of each slot in {@link #data}, for slots not yet decoded */
+    private int[] offsets;
+    private int[] lengths;
+    private boolean[] used;
+    /** decoded or inserted tuple of each slot, null if not decoded yet */
+    private Tuple[] slotTuples;
+    /** total length of the records of the used slots */
+    private int usedBytes;
+
+    /**
+     * Create a SlottedHeapPage of a table with schema td from a set of
+     * bytes of data read from disk.
+     */
+    SlottedHeapPage(HeapPageId id, TupleDesc td, byte[] data) throws IOException {
+        this(id, td, wrap(data));
+    }
+
+    /**
+     * Create a SlottedHeapPage over a page image in a buffer.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, ByteBuffer)
+     */
+    SlottedHeapPage(HeapPageId id, TupleDesc td, ByteBuffer data) throws IOException {
+        super(id, td, data);
+        checkPageSize();
+        slotCount = this.data.getShort(0) & 0xffff;
+        int capacity = Math.max(slotCount, 8);
+        offsets = new int[capacity];
+        lengths = new int[capacity];
+        used = new boolean[capacity];
+        slotTuples = new Tuple[capacity];
+        int pageSize = BufferPool.getPageSize();
+        for (int i = 0; i < slotCount; i++) {
+            int offset = this.data.getShort(HEADER_BYTES + i * SLOT_BYTES) & 0xffff;
+            int length = this.data.getShort(HEADER_BYTES + i * SLOT_BYTES + 2) & 0xffff;
+            if (offset == 0) {
+                continue;
+            }
+            if (offset < HEADER_BYTES + slotCount * SLOT_BYTES || offset + length > pageSize) {
+                throw new IOException("corrupt slot " + i + " on page " + id.getPageNumber());
+            }
+            offsets[i] = offset;
+            lengths[i] = length;
+            used[i] = true;
+            usedBytes += length;
+        }
+    }
+
+    private static void checkPageSize() {
+        if (BufferPool.getPageSize() > 1 << 16) {
+            throw new IllegalStateException("slotted pages are limited to 64KB");
+        }
+    }
+
+    /**
+     * @return the number of bytes of a tuple of schema td with the smallest
+     *         possible values
+     */
+    private static int minRecordSize(TupleDesc td) {
+        int size = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            size += td.getFieldType(j) == Type.VARCHAR_TYPE ? 4 : td.getFieldType(j).getLen();
+        }
+        return size;
+    }
+
+    /**
+     * Estimates how many tuples of schema td fit in freeBytes bytes of a
+     * page. The estimate assumes the shortest possible values, so it is
+     * only zero when no tuple fits, but a page with a non-zero estimate may
+     * still not have room for a particular tuple.
+     */
+    static int estimateFreeSlots(TupleDesc td, int freeBytes) {
+        return Math.max(0, freeBytes) / (minRecordSize(td) + SLOT_BYTES);
+    }
+
+    /**
+     * Estimates the free slots of a page from its first
+     * {@link #HEADER_BYTES} bytes, as {@link #estimateFreeSlots} does.
+     */
+    static int countEmptySlots(TupleDesc td, byte[] header) {
+        ByteBuffer buf = ByteBuffer.wrap(header);
+        int slots = buf.getShort(0) & 0xffff;
+        int recordStart = buf.getShort(2) & 0xffff;
+        if (recordStart == 0) {
+            recordStart = BufferPool.getPageSize();
+        }
+        return estimateFreeSlots(td, recordStart - HEADER_BYTES - slots * SLOT_BYTES);
+    }
+
+    /**
+     * Serializes t as a record of a table with schema td, cutting VARCHAR
+     * values off at the maximum length of their field.
+     */
+    static byte[] serialize(TupleDesc td, Tuple t) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(minRecordSize(td));
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                Field f = t.getField(j);
+                if (td.getFieldType(j) == Type.VARCHAR_TYPE) {
+                    String s = ((StringField) f).getValue();
+                    if (s.length() > td.getFieldMaxLength(j)) {
+                        s = s.substring(0, td.getFieldMaxLength(j));
+                    }
+                    dos.writeInt(s.length());
+                    dos.writeBytes(s);
+                } else {
+                    f.serialize(dos);
+                }
+            }
+        } catch (IOException e) {
+            // writes to a byte array do not fail
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * @return true if count records totalling bytes bytes fit on one page
+     */
+    static boolean fits(int count, int bytes) {
+        return HEADER_BYTES + count * SLOT_BYTES + bytes <= BufferPool.getPageSize();
+    }
+
+    /**
+     * Generates the image of a page holding the specified records in slots
+     * 0 to records.size() - 1. Used by {@link HeapFileEncoder}.
+     */
+    static byte[] createPageData(List<byte[]> records) {
+        checkPageSize();
+        int pageSize = BufferPool.getPageSize();
+        byte[] out = new byte[pageSize];
+        ByteBuffer buf = ByteBuffer.wrap(out);
+        int end = pageSize;
+        for (int i = 0; i < records.size(); i++) {
+            byte[] rec = records.get(i);
+            end -= rec.length;
+            System.arraycopy(rec, 0, out, end, rec.length);
+            buf.putShort(HEADER_BYTES + i * SLOT_BYTES, (short) end);
+            buf.putShort(HEADER_BYTES + i * SLOT_BYTES + 2, (short) rec.length);
+        }
+        buf.putShort(0, (short) records.size());
+        buf.putShort(2, (short) (end == pageSize ? 0 : end));
+        return out;
+    }
+
+    /**
+     * Decodes the record of used slot i.
+     */
+    private Tuple decode(int i) {
+        Tuple t = new Tuple(td);
+        ByteBuffer d;
+        do {
+            // see copyData() for why the page data is checked again
+            d = data;
+            int offset = offsets[i];
+            for (int j = 0; j < td.numFields(); j++) {
+                Type type = td.getFieldType(j);
+                t.setField(j, type.parse(d, offset));
+                if (type == Type.VARCHAR_TYPE) {
+                    offset += 4 + d.getInt(offset);
+                } else {
+                    offset += type.getLen();
+                }
+            }
+        } while (d != data);
+        t.setRecordId(new RecordId(pid, i));
+        return t;
+    }
+
+    private Tuple slotTuple(int i) {
+        Tuple t = slotTuples[i];
+        if (t == null) {
+            t = decode(i);
+            slotTuples[i] = t;
+        }
+        return t;
+    }
+
+    private int freeBytes() {
+        return BufferPool.getPageSize() - HEADER_BYTES - slotCount * SLOT_BYTES - usedBytes;
+    }
+
+    private int firstFreeSlot() {
+        for (int i = 0; i < slotCount; i++) {
+            if (!used[i]) {
+                return i;
+            }
+        }
+        return slotCount;
+    }
+
+    /**
+     * @return the number of bytes t would take on this page, including a
+     *         new slot if there is no empty one
+     */
+    private int spaceNeeded(byte[] record) {
+        return record.length + (firstFreeSlot() < slotCount ? 0 : SLOT_BYTES);
+    }
+
+    @Override
+    public boolean hasRoomFor(Tuple t) {
+        return spaceNeeded(serialize(td, t)) <= freeBytes();
+    }
+
+    /**
+     * Returns an estimate of the number of tuples that can still be added
+     * to this page, see {@link #estimateFreeSlots}.
+     */
+    @Override
+    public int getNumEmptySlots() {
+        return estimateFreeSlots(td, freeBytes());
+    }
+
+    @Override
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < slotCount && used[i];
+    }
+
+    @Override
+    public synchronized void insertTuple(Tuple t) throws DbException {
+        if(t==null || !td.equals(t.getTupleDesc())){
+            throw new DbException("the TupleDesc of t is mismatch!--HeapPage");
+        }
+        byte[] record = serialize(td, t);
+        if (spaceNeeded(record) > freeBytes()) {
+            throw new DbException("the page is full!--HeapPage");
+        }
+        beforeChange();
+        int i = firstFreeSlot();
+        if (i == slotCount) {
+            if (slotCount == used.length) {
+                int capacity = used.length * 2;
+                offsets = Arrays.copyOf(offsets, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+                used = Arrays.copyOf(used, capacity);
+                slotTuples = Arrays.copyOf(slotTuples, capacity);
+            }
+            slotCount++;
+        }
+        used[i] = true;
+        offsets[i] = 0;
+        lengths[i] = record.length;
+        usedBytes += record.length;
+        t.setRecordId(new RecordId(pid, i));
+        slotTuples[i] = t;
+        freeSpaceChanged();
+    }
+
+    @Override
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        if(t==null || !td.equals(t.getTupleDesc())){
+            throw new DbException("the TupleDesc of t is mismatch!--HeapPage");
+        }
+        int slotId = t.getRecordId().getTupleNumber();
+        if (!isSlotUsed(slotId)) {
+            throw new DbException("slot is already null");
+        }
+        if(!t.getRecordId().getPageId().equals(pid) || !sameContents(slotTuple(slotId), t)){
+            throw new DbException("no exist tuple error!");
+        }
+        beforeChange();
+        used[slotId] = false;
+        usedBytes -= lengths[slotId];
+        offsets[slotId] = 0;
+        lengths[slotId] = 0;
+        slotTuples[slotId] = null;
+        freeSpaceChanged();
+    }
+
+    /**
+     * Generates the image of this page, packing the records of all used
+     * slots at the end of the page. Trailing empty slots are dropped.
+     */
+    @Override
+    public synchronized byte[] getPageData() {
+        int n = slotCount;
+        while (n > 0 && !used[n - 1]) {
+            n--;
+        }
+        int pageSize = BufferPool.getPageSize();
+        byte[] out = new byte[pageSize];
+        ByteBuffer buf = ByteBuffer.wrap(out);
+        int end = pageSize;
+        for (int i = 0; i < n; i++) {
+            if (!used[i]) {
+                continue;
+            }
+            byte[] rec;
+            if (slotTuples[i] == null) {
+                rec = new byte[lengths[i]];
+                ByteBuffer d;
+                do {
+                    d = data;
+                    ByteBuffer src = d.duplicate();
+                    src.position(offsets[i]);
+                    src.get(rec);
+                } while (d != data);
+            } else {
+                // the tuple may have been changed since it was decoded
+                rec = serialize(td, slotTuples[i]);
+            }
+            end -= rec.length;
+            if (end < HEADER_BYTES + n * SLOT_BYTES) {
+                throw new IllegalStateException("tuples on page " + pid.getPageNumber() + " no longer fit");
+            }
+            System.arraycopy(rec, 0, out, end, rec.length);
+            buf.putShort(HEADER_BYTES + i * SLOT_BYTES, (short) end);
+            buf.putShort(HEADER_BYTES + i * SLOT_BYTES + 2, (short) rec.length);
+        }
+        buf.putShort(0, (short) n);
+        buf.putShort(2, (short) (end == pageSize ? 0 : end));
+        return out;
+    }
+
+    @Override
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int next = nextUsedSlot(0);
+
+            @Override
+            public boolean hasNext() {
+                return next < slotCount;
+            }
+
+            @Override
+            public Tuple next() {
+                if (next >= slotCount) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = slotTuple(next);
+                next = nextUsedSlot(next + 1);
+                return t;
+            }
+        };
+    }
+
+    private int nextUsedSlot(int from) {
+        int i = from;
+        while (i < slotCount && !used[i]) {
+            i++;
+        }
+        return i;
+    }
+}
@@ -103,9 +103,9 @@ public class Tuple implements Serializable {
         for (int i = 0; i < fields.length; i++) {
             if (i == fields.length - 1) {
                 //如果是最后一个Field，就接换行符，否则接空格
-                sb.append(fields[i].toString() + "\n");
+                sb.append(getField(i).toString() + "\n");
             } else {
-                sb.append(fields[i].toString() + "\t");
+                sb.append(getField(i).toString() + "\t");
             }
         }
         return sb.toString();
@@ -119,7 +119,12 @@ public class Tuple implements Serializable {
     public Iterator<Field> fields()
     {
         // some code goes here
-        return Arrays.asList(fields).iterator();
+        // go through getField so subclasses that decode fields lazily are honored
+        Field[] all = new Field[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            all[i] = getField(i);
+        }
+        return Arrays.asList(all).iterator();
     }
 
     /**
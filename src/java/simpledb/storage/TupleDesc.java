@@ -19,6 +19,11 @@ public class TupleDesc implements Serializable {
      */
     private TDItem[] tdAr;
 
+    /**
+     * Byte offset of each field within a serialized tuple, computed on first use.
+     */
+    private transient int[] fieldOffsets;
+
 
 
     /**
@@ -38,9 +43,27 @@ public class TupleDesc implements Serializable {
          * */
         public final String fieldName;
 
+        /**
+         * The maximum number of characters of a VARCHAR field; unused for
+         * other types
+         * */
+        public final int maxLength;
+
         public TDItem(Type t, String n) {
+            this(t, n, Type.STRING_LEN);
+        }
+
+        public TDItem(Type t, String n, int maxLength) {
             this.fieldName = n;
             this.fieldType = t;
+            this.maxLength = maxLength;
+        }
+
+        /**
+         * @return the largest number of bytes a value of this field takes
+         */
+        int getLen() {
+            return fieldType == Type.VARCHAR_TYPE ? maxLength + 4 : fieldType.getLen();
         }
         @Override
         public boolean equals(Object o) {
@@ -54,6 +77,9 @@ public class TupleDesc implements Serializable {
         }
 
         public String toString() {
+            if (fieldType == Type.VARCHAR_TYPE) {
+                return fieldName + "(" + fieldType + "(" + maxLength + "))";
+            }
             return fieldName + "(" + fieldType + ")";
         }
     }
@@ -99,6 +125,28 @@ public class TupleDesc implements Serializable {
 
     }
 
+    /**
+     * Create a new TupleDesc with typeAr.length fields with fields of the
+     * specified types and names, where VARCHAR fields hold at most the
+     * specified number of characters.
+     *
+     * @param lengthAr
+     *            array specifying the maximum length of each VARCHAR field;
+     *            entries for fields of other types are ignored
+     */
+    public TupleDesc(Type[] typeAr, String[] fieldAr, int[] lengthAr) {
+        this(typeAr, fieldAr);
+        if (lengthAr.length != numFields) {
+            throw new IllegalArgumentException("数组lengthAr长度必须和typeAr一致");
+        }
+        for (int i = 0; i < numFields; i++) {
+            if (lengthAr[i] < 0) {
+                throw new IllegalArgumentException("negative length for field " + i);
+            }
+            tdAr[i] = new TDItem(typeAr[i], fieldAr[i], lengthAr[i]);
+        }
+    }
+
     /**
      * Constructor. Create a new tuple desc with typeAr.length fields with
      * fields of the specified types, with anonymous (unnamed) fields.
@@ -155,6 +203,33 @@ public class TupleDesc implements Serializable {
         return tdAr[i].fieldType;
     }
 
+    /**
+     * Gets the maximum number of characters of the ith field, which must be
+     * a VARCHAR field.
+     *
+     * @throws NoSuchElementException
+     *             if i is not a valid field reference.
+     */
+    public int getFieldMaxLength(int i) throws NoSuchElementException {
+        if (i < 0 || i >= numFields) {
+            throw new NoSuchElementException();
+        }
+        return tdAr[i].maxLength;
+    }
+
+    /**
+     * @return true if tuples of this TupleDesc vary in size on disk, i.e.
+     *         it has at least one VARCHAR field
+     */
+    public boolean isVariableLength() {
+        for (TDItem item : tdAr) {
+            if (item.fieldType == Type.VARCHAR_TYPE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Find the index of the field with a given name.
      * 
@@ -180,17 +255,44 @@ public class TupleDesc implements Serializable {
 
     /**
      * @return The size (in bytes) of tuples corresponding to this TupleDesc.
-     *         Note that tuples from a given TupleDesc are of a fixed size.
+     *         Note that tuples from a given TupleDesc are of a fixed size,
+     *         unless it {@link #isVariableLength()}; this is the size of
+     *         the largest tuple then.
      */
     public int getSize() {
         // some code goes here
         int totalSize = 0;
         for (TDItem item : tdAr) {
-            totalSize += item.fieldType.getLen();
+            totalSize += item.getLen();
         }
         return totalSize;
     }
 
+    /**
+     * Gets the byte offset of the ith field within a serialized tuple of
+     * this TupleDesc. Only meaningful for fixed-size tuples.
+     *
+     * @param i
+     *            The index of the field. It must be a valid index.
+     * @return the sum of the sizes of the fields before field i
+     * @throws NoSuchElementException
+     *             if i is not a valid field reference.
+     */
+    public int getFieldOffset(int i) throws NoSuchElementException {
+        if (i < 0 || i >= numFields) {
+            throw new NoSuchElementException();
+        }
+        int[] offsets = fieldOffsets;
+        if (offsets == null) {
+            offsets = new int[numFields];
+            for (int j = 1; j < numFields; j++) {
+                offsets[j] = offsets[j - 1] + tdAr[j - 1].getLen();
+            }
+            fieldOffsets = offsets;
+        }
+        return offsets[i];
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
@@ -0,0 +1,94 @@
+package simpledb.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.function.Predicate;
+
+/**
+ * 2Q replacement (Johnson and Shasha). Pages read into the pool enter a
+ * small FIFO queue, A1in, where hits do not count. Pages evicted from A1in
+ * are remembered, without their contents, in A1out; a page read again
+ * while it is in A1out has proven to be re-used and enters Am, an LRU
+ * queue holding the rest of the pool. A sequential scan therefore only
+ * cycles through A1in and leaves the pages in Am alone.
+ * <p>
+ * A1in holds a quarter of the pool and A1out remembers half as many pages
+ * as the pool holds, the sizes suggested by the paper.
+ *
+ * @Threadsafe
+ */
+class TwoQEvict implements EvictionPolicy {
+    private int kin;
+    private int kout;
+    private final LinkedHashSet<PageId> a1in = new LinkedHashSet<>();
+    private final LinkedHashSet<PageId> a1out = new LinkedHashSet<>();
+    /** least recently used first */
+    private final LinkedHashSet<PageId> am = new LinkedHashSet<>();
+
+    TwoQEvict(int numPages) {
+        resize(numPages);
+    }
+
+    @Override
+    public synchronized void resize(int numPages) {
+        kin = Math.max(1, numPages / 4);
+        kout = Math.max(1, numPages / 2);
+        Iterator<PageId> it = a1out.iterator();
+        while (a1out.size() > kout) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    @Override
+    public synchronized void addPage(PageId pid) {
+        if (a1in.contains(pid) || am.contains(pid)) {
+            return;
+        }
+        if (a1out.remove(pid)) {
+            am.add(pid);
+        } else {
+            a1in.add(pid);
+        }
+    }
+
+    @Override
+    public synchronized void pageAccessed(PageId pid) {
+        if (am.remove(pid)) {
+            am.add(pid);
+        }
+    }
+
+    @Override
+    public synchronized void removePage(PageId pid) {
+        if (a1in.remove(pid)) {
+            a1out.add(pid);
+            if (a1out.size() > kout) {
+                Iterator<PageId> it = a1out.iterator();
+                it.next();
+                it.remove();
+            }
+        } else {
+            am.remove(pid);
+        }
+    }
+
+    @Override
+    public synchronized PageId getEvictPage(Predicate<PageId> evictable) {
+        LinkedHashSet<PageId> first = a1in.size() > kin || am.isEmpty() ? a1in : am;
+        PageId pid = oldest(first, evictable);
+        if (pid == null) {
+            pid = oldest(first == a1in ? am : a1in, evictable);
+        }
+        return pid;
+    }
+
+    private static PageId oldest(LinkedHashSet<PageId> queue, Predicate<PageId> evictable) {
+        for (PageId pid : queue) {
+            if (evictable.test(pid)) {
+                return pid;
+            }
+        }
+        return null;
+    }
+}
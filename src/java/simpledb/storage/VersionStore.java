@@ -0,0 +1,178 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * VersionStore lets read-only transactions read a snapshot of the database
+ * without taking locks.
+ * <p>
+ * Commits are numbered in the order the BufferPool writes them, and a
+ * snapshot is the state after the commits numbered up to the one before
+ * its transaction started. The committed state of a cached page is its
+ * before image, so a snapshot reads that as long as no later commit wrote
+ * the page. Otherwise it reads the committed image the page had at the
+ * snapshot's start, which the commit that replaced it left here: a commit
+ * keeps the images it replaces only while snapshots older than it are
+ * running, and they are dropped once the last of those snapshots is over.
+ * <p>
+ * The snapshot of a page written by a commit in progress is its image
+ * from before the commit, for snapshots that started earlier, or else the
+ * image the commit writes, which a reader waits for.
+ *
+ * @Threadsafe
+ */
+class VersionStore {
+    /** A committed image of a page, current from commit start until end. */
+    private static class Version {
+        final long start;
+        final long end;
+        final Page image;
+
+        Version(long start, long end, Page image) {
+            this.start = start;
+            this.end = end;
+            this.image = image;
+        }
+    }
+
+    /** A commit the BufferPool is writing. */
+    static class Commit {
+        final long number;
+        /** The committed images of the pages it writes, if snapshots may need them. */
+        final Map<PageId, Page> before = new HashMap<>();
+
+        Commit(long number) {
+            this.number = number;
+        }
+    }
+
+    /** The number of the last commit begun. */
+    private long clock;
+    /**
+     * The snapshots running, by transaction: the last commit each sees.
+     * Concurrent, since every page request looks its transaction up.
+     */
+    private final Map<TransactionId, Long> snapshots = new ConcurrentHashMap<>();
+    /** The commits being written, by the pages they write. */
+    private final Map<PageId, Commit> committing = new HashMap<>();
+    /**
+     * The last commit that wrote each page, for pages written since the
+     * oldest running snapshot started; other pages have not changed for
+     * any snapshot.
+     */
+    private final Map<PageId, Long> lastCommit = new HashMap<>();
+    /** The replaced images of each page that running snapshots may read, oldest first. */
+    private final Map<PageId, Deque<Version>> versions = new HashMap<>();
+
+    /**
+     * Starts a snapshot of the commits so far for tid.
+     */
+    synchronized void beginSnapshot(TransactionId tid) {
+        snapshots.put(tid, clock);
+    }
+
+    /** @return true if tid reads a snapshot */
+    boolean isSnapshot(TransactionId tid) {
+        return snapshots.containsKey(tid);
+    }
+
+    /**
+     * Ends tid's snapshot, if it has one, and drops the images no running
+     * snapshot can read any longer.
+     *
+     * @return false if tid had no snapshot
+     */
+    synchronized boolean endSnapshot(TransactionId tid) {
+        if (snapshots.remove(tid) == null) {
+            return false;
+        }
+        if (snapshots.isEmpty()) {
+            lastCommit.clear();
+            versions.clear();
+            return true;
+        }
+        long oldest = snapshots.values().stream().min(Long::compare).get();
+        lastCommit.values().removeIf(c -> c <= oldest);
+        for (Iterator<Deque<Version>> it = versions.values().iterator(); it.hasNext(); ) {
+            Deque<Version> chain = it.next();
+            while (!chain.isEmpty() && chain.peekFirst().end <= oldest) {
+                chain.removeFirst();
+            }
+            if (chain.isEmpty()) {
+                it.remove();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Numbers a commit about to write the specified pages and, if any
+     * snapshot is running, keeps their committed images for it.
+     */
+    synchronized Commit beginCommit(Collection<Page> pages) {
+        Commit commit = new Commit(++clock);
+        for (Page page : pages) {
+            committing.put(page.getId(), commit);
+            if (!snapshots.isEmpty()) {
+                commit.before.put(page.getId(), page.getBeforeImage());
+            }
+        }
+        return commit;
+    }
+
+    /**
+     * Records that a commit begun with {@link #beginCommit} has written its
+     * pages and made them their own before images, and wakes the readers
+     * waiting for it.
+     */
+    synchronized void endCommit(Commit commit, Collection<Page> pages) {
+        for (Page page : pages) {
+            PageId pid = page.getId();
+            committing.remove(pid, commit);
+            Page before = commit.before.get(pid);
+            if (before != null) {
+                long start = lastCommit.getOrDefault(pid, 0L);
+                versions.computeIfAbsent(pid, k -> new ArrayDeque<>())
+                        .addLast(new Version(start, commit.number, before));
+                lastCommit.put(pid, commit.number);
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * @param cached the page as the BufferPool caches it, or had it cached
+     *               since tid's snapshot started
+     * @return the page as tid's snapshot sees it
+     * @throws InterruptedException if the thread was interrupted while it
+     *         waited for a commit to be written
+     */
+    synchronized Page read(TransactionId tid, Page cached) throws InterruptedException {
+        long snapshot = snapshots.get(tid);
+        PageId pid = cached.getId();
+        Commit commit;
+        while ((commit = committing.get(pid)) != null) {
+            if (commit.number > snapshot) {
+                return commit.before.get(pid);
+            }
+            wait();
+        }
+        if (lastCommit.getOrDefault(pid, 0L) <= snapshot) {
+            return cached.getBeforeImage();
+        }
+        for (Version v : versions.get(pid)) {
+            if (v.start <= snapshot && snapshot < v.end) {
+                return v.image;
+            }
+        }
+        throw new IllegalStateException("no version of page " + pid + " for snapshot " + snapshot);
+    }
+}
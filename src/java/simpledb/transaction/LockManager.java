@@ -2,19 +2,48 @@ package simpledb.transaction;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import simpledb.common.Permissions;
 import simpledb.storage.PageId;
 
 public class LockManager {
     private ConcurrentHashMap<PageId, List<PageLock>>pageLocks;
+    // 每个事务持有锁的页面，提交时只需释放这些页面上的锁
+    private ConcurrentHashMap<TransactionId, Set<PageId>> transactionLocks;
+
+    // 按页面哈希分段加锁，不同段上的请求互不阻塞
+    private final Object[] stripes;
 
     public LockManager() {
+        this(64);
+    }
+
+    public LockManager(int stripes) {
         this.pageLocks = new ConcurrentHashMap<>();
+        this.transactionLocks = new ConcurrentHashMap<>();
+        this.stripes = new Object[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new Object();
+        }
+    }
+
+    private Object stripe(PageId pageId){
+        long h = pageId.hashCode() * 0x9E3779B97F4A7C15L;
+        return stripes[Math.floorMod((int) (h >>> 32), stripes.length)];
+    }
+
+    private void held(TransactionId tid, PageId pageId){
+        transactionLocks.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(pageId);
+    }
+
+    public Boolean acquireLock(TransactionId tid, PageId pageId, Permissions permissions){
+        synchronized (stripe(pageId)) {
+            return acquire(tid, pageId, permissions);
+        }
     }
 
-    public synchronized Boolean acquireLock(TransactionId tid, PageId pageId, Permissions permissions){
-        String threadName = Thread.currentThread().getName();
+    private Boolean acquire(TransactionId tid, PageId pageId, Permissions permissions){
         List<PageLock> locks = pageLocks.get(pageId);
         final PageLock pageLock = new PageLock(tid, permissions);
         // 如果页面没有上锁，将其锁添加进去
@@ -24,6 +53,7 @@ public class LockManager {
             }
             locks.add(pageLock);
             pageLocks.put(pageId,locks);
+            held(tid, pageId);
             return true;
         }
         if(locks.size()==1){
@@ -39,6 +69,7 @@ public class LockManager {
                 if(fLock.getPermissions().equals(Permissions.READ_ONLY)&&pageLock.getPermissions().equals(Permissions.READ_ONLY)){
                     //共享锁
                     locks.add(pageLock);
+                    held(tid, pageId);
                     return true;
                 }else{
                     // 必须等待读锁退出
@@ -56,42 +87,43 @@ public class LockManager {
             }
         }
         locks.add(pageLock);
+        held(tid, pageId);
         return true;
     }
-    public synchronized void releaseLock(TransactionId tid,PageId pageId){
-        final List<PageLock> pageLocks = this.pageLocks.get(pageId);
-        for (PageLock lock : pageLocks) {
-            final TransactionId ttid = lock.getTransactionId();
-            if(ttid!=null&&ttid.equals(tid)){
-                pageLocks.remove(lock);
-                if(pageLocks.isEmpty()){
-                    this.pageLocks.remove(pageId);
-                }
-                return;
-            }
+    public void releaseLock(TransactionId tid,PageId pageId){
+        if(release(tid, pageId)){
+            transactionLocks.computeIfPresent(tid, (k, held) -> {
+                held.remove(pageId);
+                return held.isEmpty() ? null : held;
+            });
         }
     }
-    public synchronized void releaseAllLock(TransactionId transactionId){
-        for (PageId pid : pageLocks.keySet()) {
-            final List<PageLock> locks = this.pageLocks.get(pid);
+    private boolean release(TransactionId tid,PageId pageId){
+        synchronized (stripe(pageId)) {
+            final List<PageLock> locks = this.pageLocks.get(pageId);
+            if(locks==null)return false;
             for (PageLock lock : locks) {
-                if(transactionId.equals(lock.getTransactionId())){
+                final TransactionId ttid = lock.getTransactionId();
+                if(ttid!=null&&ttid.equals(tid)){
                     locks.remove(lock);
                     if(locks.isEmpty()){
-                        pageLocks.remove(pid);
+                        this.pageLocks.remove(pageId);
                     }
-                    break;
+                    return true;
                 }
             }
+            return false;
         }
     }
-    public synchronized boolean holdsLock(TransactionId tid,PageId pid){
-        final List<PageLock> locks = this.pageLocks.get(pid);
-        if(locks==null)return false;
-        for (PageLock lock : locks) {
-            final TransactionId ttid = lock.getTransactionId();
-            if(ttid!=null&&ttid.equals(tid))return true;
+    public void releaseAllLock(TransactionId transactionId){
+        final Set<PageId> held = transactionLocks.remove(transactionId);
+        if(held==null)return;
+        for (PageId pid : held) {
+            release(transactionId, pid);
         }
-        return false;
+    }
+    public boolean holdsLock(TransactionId tid,PageId pid){
+        final Set<PageId> held = transactionLocks.get(tid);
+        return held!=null&&held.contains(pid);
     }
 }
@@ -0,0 +1,98 @@
+package simpledb;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class BeforeImageTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+    }
+
+    /**
+     * The before image is the page as it was read until the page is
+     * committed, and then the committed page until the next change.
+     */
+    @Test public void capturedOnFirstChange() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        int free = page.getNumEmptySlots();
+        page.insertTuple(Utility.getHeapTuple(new int[]{1, 2}));
+        assertEquals(free, page.getBeforeImage().getNumEmptySlots());
+
+        page.setBeforeImage();
+        assertArrayEquals(page.getPageData(), page.getBeforeImage().getPageData());
+
+        Tuple t = page.iterator().next();
+        page.deleteTuple(t);
+        page.insertTuple(Utility.getHeapTuple(new int[]{3, 4}));
+        page.insertTuple(Utility.getHeapTuple(new int[]{5, 6}));
+        assertEquals(free - 1, page.getBeforeImage().getNumEmptySlots());
+    }
+
+    /**
+     * The before image is built once and shared until the page is next
+     * committed.
+     */
+    @Test public void shared() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        HeapPage before = page.getBeforeImage();
+        page.insertTuple(Utility.getHeapTuple(new int[]{1, 2}));
+        assertSame(before, page.getBeforeImage());
+
+        page.setBeforeImage();
+        assertNotSame(before, page.getBeforeImage());
+    }
+
+    /**
+     * A commit makes the pages it wrote their own before images, and
+     * leaves the before images of the pages it did not write as they were.
+     */
+    @Test public void commit() throws Exception {
+        int perPage = BufferPool.getPageSize() * 8 / (8 * 8 + 1);
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 2 * perPage, null, new ArrayList<>());
+        BufferPool bp = Database.resetBufferPool(new BufferPool(4));
+
+        TransactionId reader = new TransactionId();
+        HeapPage clean = (HeapPage) bp.getPage(reader, new HeapPageId(hf.getId(), 1), Permissions.READ_ONLY);
+        HeapPage cleanBefore = clean.getBeforeImage();
+
+        TransactionId writer = new TransactionId();
+        bp.insertTuple(writer, hf.getId(), Utility.getHeapTuple(new int[]{1, 2}));
+        HeapPage written = (HeapPage) bp.getPage(writer, new HeapPageId(hf.getId(), 2), Permissions.READ_ONLY);
+        int free = written.getNumEmptySlots();
+        assertEquals(free + 1, written.getBeforeImage().getNumEmptySlots());
+        bp.transactionComplete(writer);
+
+        assertArrayEquals(cleanBefore.getPageData(), clean.getBeforeImage().getPageData());
+        assertEquals(free, written.getBeforeImage().getNumEmptySlots());
+        bp.transactionComplete(reader);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BeforeImageTest.class);
+    }
+}
@@ -0,0 +1,118 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolResizeTest extends SimpleDbTestBase {
+    private static final int TABLE_PAGES = 8;
+
+    private List<List<Integer>> tuples;
+    private HeapFile hf;
+
+    /**
+     * Set up a table of TABLE_PAGES full pages.
+     */
+    @Before public void createTable() throws Exception {
+        tuples = new ArrayList<>();
+        int perPage = BufferPool.getPageSize() * 8 / (8 * 8 + 1);
+        hf = SystemTestUtil.createRandomHeapFile(2, TABLE_PAGES * perPage, null, tuples);
+        assertEquals(TABLE_PAGES, hf.numPages());
+    }
+
+    private void readAll(BufferPool bp, TransactionId tid) throws Exception {
+        for (int i = 0; i < TABLE_PAGES; i++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+    }
+
+    /**
+     * A grown pool keeps the pages it had and caches more, whatever its
+     * eviction policy.
+     */
+    @Test public void grow() throws Exception {
+        for (BufferPool.Eviction eviction : BufferPool.Eviction.values()) {
+            BufferPool bp = Database.resetBufferPool(new BufferPool(TABLE_PAGES / 2, eviction));
+            TransactionId tid = new TransactionId();
+            readAll(bp, tid);
+            bp.resize(TABLE_PAGES);
+            assertEquals(TABLE_PAGES, bp.getNumPages());
+            assertEquals(TABLE_PAGES / 2, bp.stats().getResidentPages());
+
+            readAll(bp, tid);
+            readAll(bp, tid);
+            assertEquals(eviction.toString(), TABLE_PAGES, bp.stats().getResidentPages());
+            assertEquals(eviction.toString(), TABLE_PAGES / 2, bp.stats().getEvictions());
+            bp.transactionComplete(tid);
+        }
+    }
+
+    /**
+     * A shrunk pool evicts its clean pages at once, whatever its eviction
+     * policy.
+     */
+    @Test public void shrink() throws Exception {
+        for (BufferPool.Eviction eviction : BufferPool.Eviction.values()) {
+            BufferPool bp = Database.resetBufferPool(new BufferPool(TABLE_PAGES, eviction));
+            TransactionId tid = new TransactionId();
+            readAll(bp, tid);
+            bp.resize(2);
+            assertEquals(2, bp.getNumPages());
+            assertEquals(eviction.toString(), 2, bp.stats().getResidentPages());
+
+            readAll(bp, tid);
+            assertEquals(eviction.toString(), 2, bp.stats().getResidentPages());
+            bp.transactionComplete(tid);
+        }
+    }
+
+    /**
+     * Shrinking keeps the dirty pages of a running transaction, which may
+     * go on using the room the pool had; the pool shrinks the rest of the
+     * way when the transaction commits, and the changes are not lost.
+     */
+    @Test public void shrinkWithDirtyPages() throws Exception {
+        BufferPool bp = Database.resetBufferPool(new BufferPool(TABLE_PAGES));
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < TABLE_PAGES / 2; i++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), i);
+            Tuple tuple = ((HeapPage) bp.getPage(t.getId(), pid, Permissions.READ_WRITE)).iterator().next();
+            bp.deleteTuple(t.getId(), tuple);
+            tuples.remove(SystemTestUtil.tupleToList(tuple));
+        }
+        readAll(bp, t.getId());
+
+        bp.resize(2);
+        assertEquals(TABLE_PAGES / 2, bp.stats().getResidentPages());
+        assertEquals(TABLE_PAGES / 2, bp.stats().getDirtyPages());
+        readAll(bp, t.getId());
+        assertTrue(bp.stats().getResidentPages() <= TABLE_PAGES);
+
+        t.commit();
+        assertEquals(2, bp.stats().getResidentPages());
+        assertEquals(0, bp.stats().getDirtyPages());
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolResizeTest.class);
+    }
+}
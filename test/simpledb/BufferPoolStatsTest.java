@@ -0,0 +1,102 @@
+package simpledb;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolStatsTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 4;
+
+    private HeapFile hf;
+    private BufferPool bp;
+
+    /**
+     * Set up a table of a few more pages than the pool holds.
+     */
+    @Before public void createTable() throws Exception {
+        int perPage = BufferPool.getPageSize() * 8 / (8 * 8 + 1);
+        hf = SystemTestUtil.createRandomHeapFile(2, (POOL_PAGES + 2) * perPage, null, new ArrayList<>());
+        bp = Database.resetBufferPool(new BufferPool(POOL_PAGES));
+    }
+
+    /**
+     * Hits, misses, evictions and residency follow the page requests.
+     */
+    @Test public void requests() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < hf.numPages(); i++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+        bp.getPage(tid, new HeapPageId(hf.getId(), hf.numPages() - 1), Permissions.READ_ONLY);
+
+        BufferPoolStats stats = bp.stats();
+        assertEquals(POOL_PAGES, stats.getCapacity());
+        assertEquals(hf.numPages(), stats.getMisses());
+        assertEquals(1, stats.getHits());
+        assertEquals(hf.numPages() - POOL_PAGES, stats.getEvictions());
+        assertEquals(POOL_PAGES, stats.getResidentPages());
+        assertEquals(Integer.valueOf(POOL_PAGES), stats.getResidentPagesByTable().get(hf.getId()));
+        assertEquals(0, stats.getDirtyPages());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Dirty pages are counted until their transaction commits, and the
+     * commit is counted as a flush.
+     */
+    @Test public void dirtyPagesAndFlushes() throws Exception {
+        TransactionId tid = new TransactionId();
+        bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{1, 2}));
+        assertEquals(1, bp.stats().getDirtyPages());
+        assertEquals(0, bp.stats().getFlushes());
+
+        bp.transactionComplete(tid);
+        BufferPoolStats stats = bp.stats();
+        assertEquals(0, stats.getDirtyPages());
+        assertEquals(1, stats.getFlushes());
+        assertEquals(1, stats.getFlushedPages());
+        assertTrue(stats.getFlushNanos() > 0);
+        assertEquals(stats.getFlushNanos(), stats.getMaxFlushNanos());
+    }
+
+    /**
+     * The MBean reports on the pool the Database currently uses.
+     */
+    @Test public void mbean() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(BufferPool.MBEAN_NAME);
+        assertTrue(server.isRegistered(name));
+
+        TransactionId tid = new TransactionId();
+        bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(1L, server.getAttribute(name, "Misses"));
+        assertEquals(0.5, (Double) server.getAttribute(name, "HitRatio"), 1e-9);
+        assertEquals(POOL_PAGES, server.getAttribute(name, "Capacity"));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolStatsTest.class);
+    }
+}
@@ -0,0 +1,124 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolWarmUpTest extends SimpleDbTestBase {
+    private static final int TABLE_PAGES = 6;
+
+    private HeapFile hf;
+    private File snapshot;
+
+    /**
+     * Set up a table of TABLE_PAGES full pages and a pool caching its odd
+     * pages.
+     */
+    @Before public void createTable() throws Exception {
+        int perPage = BufferPool.getPageSize() * 8 / (8 * 8 + 1);
+        hf = SystemTestUtil.createRandomHeapFile(2, TABLE_PAGES * perPage, null, new ArrayList<>());
+        snapshot = File.createTempFile("residency", ".pool");
+        snapshot.deleteOnExit();
+
+        BufferPool bp = Database.resetBufferPool(new BufferPool(TABLE_PAGES));
+        TransactionId tid = new TransactionId();
+        for (int i = 1; i < TABLE_PAGES; i += 2) {
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        }
+        bp.transactionComplete(tid);
+    }
+
+    @After public void deleteSnapshot() {
+        snapshot.delete();
+    }
+
+    private HeapPageId pid(int pgNo) {
+        return new HeapPageId(hf.getId(), pgNo);
+    }
+
+    private static void awaitResident(BufferPool bp, PageId pid) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!bp.isResident(pid) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(pid + " was not read in", bp.isResident(pid));
+    }
+
+    /**
+     * A new pool warms up with the pages the old one had saved, and then
+     * serves them without reading them.
+     */
+    @Test public void saveAndWarmUp() throws Exception {
+        assertEquals(TABLE_PAGES / 2, Database.getBufferPool().saveResidency(snapshot));
+
+        BufferPool bp = Database.resetBufferPool(new BufferPool(TABLE_PAGES));
+        assertEquals(TABLE_PAGES / 2, bp.warmUp(snapshot));
+        for (int i = 1; i < TABLE_PAGES; i += 2) {
+            awaitResident(bp, pid(i));
+        }
+        assertEquals(TABLE_PAGES / 2, bp.stats().getResidentPages());
+
+        long misses = bp.getMissCount();
+        TransactionId tid = new TransactionId();
+        for (int i = 1; i < TABLE_PAGES; i += 2) {
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        }
+        assertEquals(misses, bp.getMissCount());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A smaller pool warms up with as many of the saved pages as it holds,
+     * first pages first.
+     */
+    @Test public void smallerPool() throws Exception {
+        Database.getBufferPool().saveResidency(snapshot);
+
+        BufferPool bp = Database.resetBufferPool(new BufferPool(2));
+        assertEquals(2, bp.warmUp(snapshot));
+        awaitResident(bp, pid(1));
+        awaitResident(bp, pid(3));
+        assertFalse(bp.isResident(pid(5)));
+    }
+
+    /**
+     * There is nothing to warm up with before the first checkpoint, and a
+     * checkpoint saves the pool's pages.
+     */
+    @Test public void checkpoint() throws Exception {
+        File saved = Database.getLogFile().getResidencyFile();
+        saved.delete();
+        BufferPool bp = Database.getBufferPool();
+        assertEquals(0, bp.warmUp(saved));
+
+        Database.getLogFile().logCheckpoint();
+        try {
+            bp = Database.resetBufferPool(new BufferPool(TABLE_PAGES));
+            assertEquals(TABLE_PAGES / 2, bp.warmUp(saved));
+            awaitResident(bp, pid(5));
+        } finally {
+            saved.delete();
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolWarmUpTest.class);
+    }
+}
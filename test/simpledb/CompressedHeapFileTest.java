@@ -0,0 +1,106 @@
+package simpledb;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+    private List<List<Integer>> tuples;
+    private File plain;
+    private File compressed;
+    private CompressedHeapFile hf;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<>();
+        // small values compress well, like the padding of string fields
+        plain = SystemTestUtil.createRandomHeapFileUnopened(2, 2000, 100, null, tuples);
+        compressed = File.createTempFile("compressed", ".dat");
+        compressed.deleteOnExit();
+        CompressedHeapFile.compress(plain, compressed, BufferPool.getPageSize());
+        hf = new CompressedHeapFile(compressed, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The compressed file holds the same pages in less space.
+     */
+    @Test public void readCompressed() throws Exception {
+        assertTrue(CompressedHeapFile.isCompressed(compressed));
+        assertFalse(CompressedHeapFile.isCompressed(plain));
+        assertTrue(compressed.length() < plain.length());
+        assertEquals(plain.length() / BufferPool.getPageSize(), hf.numPages());
+        SystemTestUtil.matchTuples(hf, tid, tuples);
+    }
+
+    /**
+     * Pages written back are compressed again and survive reopening the
+     * file, including pages appended to it.
+     */
+    @Test public void writeAndReopen() throws Exception {
+        int pages = hf.numPages();
+        for (int i = 0; i < 1000; ++i) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{i, -i}));
+            tuples.add(Arrays.asList(i, -i));
+        }
+        assertTrue(hf.numPages() > pages);
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        CompressedHeapFile reopened = new CompressedHeapFile(compressed, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        assertEquals(hf.numPages(), reopened.numPages());
+        tid = new TransactionId();
+        SystemTestUtil.matchTuples(reopened, tid, tuples);
+    }
+
+    /**
+     * HeapFileEncoder writes compressed files on request.
+     */
+    @Test public void encoderCompresses() throws Exception {
+        File out = File.createTempFile("encoded", ".dat");
+        out.deleteOnExit();
+        File txt = File.createTempFile("encoded", ".txt");
+        txt.deleteOnExit();
+        Files.write(txt.toPath(), "1,2\n3,4\n".getBytes());
+        HeapFileEncoder.convert(txt, out, BufferPool.getPageSize(), 2,
+                new Type[]{Type.INT_TYPE, Type.INT_TYPE}, ',', true);
+        assertTrue(CompressedHeapFile.isCompressed(out));
+        CompressedHeapFile f = new CompressedHeapFile(out, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        List<List<Integer>> expected = new ArrayList<>();
+        expected.add(Arrays.asList(1, 2));
+        expected.add(Arrays.asList(3, 4));
+        SystemTestUtil.matchTuples(f, tid, expected);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,144 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentBufferPoolTest extends SimpleDbTestBase {
+    private static final int THREADS = 8;
+
+    // class to count, and slow down, reads of pages from disk
+    static class CountingHeapFile extends HeapFile {
+        final AtomicInteger reads = new AtomicInteger();
+
+        CountingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            reads.incrementAndGet();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    /**
+     * Runs body on THREADS threads at once and rethrows the first failure.
+     */
+    private static void runConcurrently(ThrowingRunnable body) throws Throwable {
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                    body.run();
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    interface ThrowingRunnable {
+        void run() throws Exception;
+    }
+
+    /**
+     * Threads that miss on the same page at the same time share one read.
+     */
+    @Test public void missesAreCollapsed() throws Throwable {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 10, 100, null, new ArrayList<>());
+        CountingHeapFile hf = new CountingHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        BufferPool bp = Database.getBufferPool();
+
+        List<Page> seen = new ArrayList<>();
+        runConcurrently(() -> {
+            TransactionId tid = new TransactionId();
+            Page page = bp.getPage(tid, pid, Permissions.READ_ONLY);
+            synchronized (seen) {
+                seen.add(page);
+            }
+            bp.transactionComplete(tid);
+        });
+        assertEquals(1, hf.reads.get());
+        assertEquals(1, bp.getMissCount());
+        for (Page page : seen) {
+            assertSame(seen.get(0), page);
+        }
+    }
+
+    /**
+     * Readers of a table larger than the pool always get the page they ask
+     * for, and the pool stays within its size.
+     */
+    @Test public void readersAndEviction() throws Throwable {
+        int perPage = BufferPool.getPageSize() * 8 / (8 * 8 + 1);
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 30 * perPage, null, new ArrayList<>());
+        BufferPool bp = Database.resetBufferPool(new BufferPool(8, BufferPool.Eviction.LRU_2));
+
+        runConcurrently(() -> {
+            Random random = new Random();
+            for (int i = 0; i < 100; i++) {
+                TransactionId tid = new TransactionId();
+                for (int j = 0; j < 20; j++) {
+                    // a few pages are read much more often than the rest
+                    int pgNo = random.nextBoolean() ? random.nextInt(3) : random.nextInt(hf.numPages());
+                    HeapPageId pid = new HeapPageId(hf.getId(), pgNo);
+                    assertEquals(pid, bp.getPage(tid, pid, Permissions.READ_ONLY).getId());
+                }
+                bp.transactionComplete(tid);
+            }
+        });
+        int resident = 0;
+        for (int i = 0; i < hf.numPages(); i++) {
+            if (bp.isResident(new HeapPageId(hf.getId(), i))) {
+                resident++;
+            }
+        }
+        assertTrue(resident <= 8 + THREADS);
+        assertTrue(bp.getHitCount() > bp.getMissCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ConcurrentBufferPoolTest.class);
+    }
+}
@@ -0,0 +1,119 @@
+package simpledb;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class EvictionPolicyTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 10;
+
+    private HeapFile hot;
+    private HeapFile scanned;
+
+    /**
+     * Set up a small, frequently used table and a large scanned one.
+     */
+    @Before public void createTables() throws Exception {
+        int perPage = BufferPool.getPageSize() * 8 / (8 * 8 + 1);
+        hot = SystemTestUtil.createRandomHeapFile(2, 3 * perPage, null, new ArrayList<>());
+        scanned = SystemTestUtil.createRandomHeapFile(2, 40 * perPage, null, new ArrayList<>());
+        assertEquals(3, hot.numPages());
+    }
+
+    /**
+     * Scans the large table once, reading every page of the small one after
+     * every four scanned pages.
+     *
+     * @return the number of times a page of the small table was not resident
+     */
+    private int mixedWorkload(BufferPool bp, TransactionId tid) throws Exception {
+        int hotMisses = 0;
+        for (int i = 0; i < scanned.numPages(); i++) {
+            bp.getPage(tid, new HeapPageId(scanned.getId(), i), Permissions.READ_ONLY);
+            if (i % 4 == 3) {
+                for (int j = 0; j < hot.numPages(); j++) {
+                    HeapPageId pid = new HeapPageId(hot.getId(), j);
+                    if (!bp.isResident(pid)) {
+                        hotMisses++;
+                    }
+                    bp.getPage(tid, pid, Permissions.READ_ONLY);
+                }
+            }
+        }
+        return hotMisses;
+    }
+
+    private int hotMissesAfterWarmUp(BufferPool.Eviction eviction) throws Exception {
+        BufferPool bp = Database.resetBufferPool(new BufferPool(POOL_PAGES, eviction));
+        TransactionId tid = new TransactionId();
+        mixedWorkload(bp, tid);
+        int misses = mixedWorkload(bp, tid);
+        assertTrue(bp.getHitCount() > 0);
+        assertTrue(bp.getMissCount() > 2 * scanned.numPages());
+        bp.transactionComplete(tid);
+        return misses;
+    }
+
+    /**
+     * FIFO ignores hits, so the scan pushes the small table out of the pool.
+     */
+    @Test public void fifoIsNotScanResistant() throws Exception {
+        assertTrue(hotMissesAfterWarmUp(BufferPool.Eviction.FIFO) > 0);
+    }
+
+    @Test public void clockKeepsHitPages() throws Exception {
+        assertEquals(0, hotMissesAfterWarmUp(BufferPool.Eviction.CLOCK));
+    }
+
+    @Test public void lru2KeepsHitPages() throws Exception {
+        assertEquals(0, hotMissesAfterWarmUp(BufferPool.Eviction.LRU_2));
+    }
+
+    @Test public void twoQKeepsHitPages() throws Exception {
+        assertEquals(0, hotMissesAfterWarmUp(BufferPool.Eviction.TWO_Q));
+    }
+
+    /**
+     * Every policy skips dirty pages and reports when none can be evicted.
+     */
+    @Test public void dirtyPagesStay() throws Exception {
+        for (BufferPool.Eviction eviction : BufferPool.Eviction.values()) {
+            BufferPool bp = Database.resetBufferPool(new BufferPool(2, eviction));
+            TransactionId tid = new TransactionId();
+            HeapPageId dirtyId = new HeapPageId(hot.getId(), 0);
+            bp.getPage(tid, dirtyId, Permissions.READ_WRITE).markDirty(true, tid);
+            for (int i = 0; i < 5; i++) {
+                bp.getPage(tid, new HeapPageId(scanned.getId(), i), Permissions.READ_ONLY);
+                assertTrue(eviction.toString(), bp.isResident(dirtyId));
+            }
+            bp.getPage(tid, new HeapPageId(hot.getId(), 1), Permissions.READ_WRITE).markDirty(true, tid);
+            try {
+                bp.getPage(tid, new HeapPageId(scanned.getId(), 10), Permissions.READ_ONLY);
+                fail(eviction + " should not evict dirty pages; expected DbException");
+            } catch (DbException e) {
+                // expected
+            }
+            bp.transactionComplete(tid, false);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
@@ -0,0 +1,103 @@
+package simpledb;
+
+import java.io.File;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class FreeSpaceMapTest extends TestUtil.CreateHeapFile {
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for FreeSpaceMap.update() and findPageWithSpace()
+     */
+    @Test public void findPageWithSpace() {
+        FreeSpaceMap fsm = new FreeSpaceMap(new File("unused.fsm"));
+        assertEquals(-1, fsm.findPageWithSpace(0));
+
+        fsm.update(0, 0);
+        fsm.update(1, 0);
+        fsm.update(40, 3);
+        assertEquals(41, fsm.numPages());
+        assertEquals(40, fsm.findPageWithSpace(0));
+        assertEquals(-1, fsm.findPageWithSpace(41));
+
+        // a page gaining space before the current first free page is found again
+        fsm.update(1, 2);
+        assertEquals(1, fsm.findPageWithSpace(0));
+        assertEquals(40, fsm.findPageWithSpace(2));
+    }
+
+    /**
+     * Unit test for FreeSpaceMap.save() and load()
+     */
+    @Test public void saveAndLoad() throws Exception {
+        File f = File.createTempFile("fsm", ".fsm");
+        f.deleteOnExit();
+        FreeSpaceMap fsm = new FreeSpaceMap(f);
+        fsm.update(0, 7);
+        fsm.update(2, 5);
+        fsm.save(3 * 4096, 4096);
+
+        FreeSpaceMap loaded = new FreeSpaceMap(f);
+        assertTrue(loaded.load(3 * 4096, 4096));
+        assertEquals(3, loaded.numPages());
+        assertEquals(7, loaded.getFreeSlots(0));
+        assertEquals(0, loaded.getFreeSlots(1));
+        assertEquals(5, loaded.getFreeSlots(2));
+
+        // a map saved for a different version of the file is not used
+        assertFalse(new FreeSpaceMap(f).load(4 * 4096, 4096));
+    }
+
+    /**
+     * Inserts should follow the free space map and keep it up to date.
+     */
+    @Test public void insertUsesFreeSpaceMap() throws Exception {
+        for (int i = 0; i < 504 * 2 + 1; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(3, empty.numPages());
+        FreeSpaceMap fsm = empty.getFreeSpaceMap();
+        assertEquals(0, fsm.getFreeSlots(0));
+        assertEquals(0, fsm.getFreeSlots(1));
+        assertEquals(503, fsm.getFreeSlots(2));
+
+        // freeing a slot on the first page sends the next insert there
+        HeapPage first = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(empty.getId(), 0), Permissions.READ_WRITE);
+        first.deleteTuple(first.iterator().next());
+        assertEquals(1, fsm.getFreeSlots(0));
+        Tuple t = Utility.getHeapTuple(1, 2);
+        empty.insertTuple(tid, t);
+        assertEquals(0, t.getRecordId().getPageId().getPageNumber());
+        assertEquals(0, fsm.getFreeSlots(0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
@@ -1,6 +1,7 @@
 package simpledb;
 
 import simpledb.common.Database;
+import simpledb.common.Permissions;
 import simpledb.common.Utility;
 import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
@@ -125,6 +126,60 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    @Test
+    public void testIteratorMemoryMapped() throws Exception {
+        HeapFile mapped = SystemTestUtil.createRandomHeapFile(2, 1200, null, null);
+        mapped.setMemoryMappedScans(true);
+        assertTrue(mapped.isMemoryMappedScans());
+
+        // a page dirtied in the buffer pool is read from the pool, not the mapping
+        HeapPage first = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(mapped.getId(), 0), Permissions.READ_WRITE);
+        Tuple victim = first.iterator().next();
+        first.deleteTuple(victim);
+        first.markDirty(true, tid);
+
+        DbFileIterator it = mapped.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            assertNotNull(it.next());
+            count += 1;
+        }
+        assertEquals(1200 - 1, count);
+        it.close();
+    }
+
+    @Test
+    public void testIteratorReadsAhead() throws Exception {
+        // ten full pages
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 504 * 10, null, null);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        BufferPool pool = Database.getBufferPool();
+
+        DbFileIterator it = big.iterator(tid);
+        it.open();
+        // finish the first two pages and step onto the third
+        for (int i = 0; i < 504 * 2 + 1; i++) {
+            assertTrue(it.hasNext());
+            it.next();
+        }
+        HeapPageId ahead = new HeapPageId(big.getId(), 3);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!pool.isResident(ahead) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(pool.isResident(ahead));
+
+        int count = 504 * 2 + 1;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        assertEquals(504 * 10, count);
+        it.close();
+    }
+
     /**
      * JUnit suite target
      */
@@ -102,6 +102,29 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Tuples read lazily from a page must serialize back to the same bytes,
+     * and modified tuples must be written out with their new values.
+     */
+    @Test public void testLazyTuplesRoundTrip() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+
+        // touching one field of every tuple does not change the page image
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            it.next().getField(1);
+        }
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+
+        Tuple first = page.iterator().next();
+        first.setField(1, new IntField(-7));
+        HeapPage reread = new HeapPage(pid, page.getPageData());
+        Tuple tup = reread.iterator().next();
+        assertEquals(EXAMPLE_VALUES[0][0], ((IntField) tup.getField(0)).getValue());
+        assertEquals(-7, ((IntField) tup.getField(1)).getValue());
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
@@ -0,0 +1,219 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class LockQueueTest extends SimpleDbTestBase {
+    /** Time to wait before checking the state of lock contention, in ms */
+    private static final int TIMEOUT = 100;
+
+    private BufferPool bp;
+    private PageId p0;
+    private PageId p1;
+    private final ArrayList<TestUtil.LockGrabber> grabbers = new ArrayList<>();
+
+    /**
+     * Set up a table of two pages.
+     */
+    @Before public void createTable() throws Exception {
+        int perPage = BufferPool.getPageSize() * 8 / (8 * 8 + 1);
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 2 * perPage, null, new ArrayList<>());
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        p0 = new HeapPageId(hf.getId(), 0);
+        p1 = new HeapPageId(hf.getId(), 1);
+    }
+
+    @SuppressWarnings("deprecation")
+    @After public void stopGrabbers() {
+        for (TestUtil.LockGrabber g : grabbers) {
+            // yes, stop() is evil, but this is unit test cleanup
+            g.stop();
+        }
+    }
+
+    private TestUtil.LockGrabber grab(TransactionId tid, PageId pid, Permissions perm) throws Exception {
+        TestUtil.LockGrabber g = new TestUtil.LockGrabber(tid, pid, perm);
+        grabbers.add(g);
+        g.start();
+        Thread.sleep(TIMEOUT);
+        return g;
+    }
+
+    /**
+     * Waiting requests are granted in the order they were made, and a
+     * shared request does not overtake an exclusive one waiting ahead of it.
+     */
+    @Test public void fifo() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        TransactionId t3 = new TransactionId();
+        bp.getPage(t1, p0, Permissions.READ_ONLY);
+        TestUtil.LockGrabber write = grab(t2, p0, Permissions.READ_WRITE);
+        TestUtil.LockGrabber read = grab(t3, p0, Permissions.READ_ONLY);
+        assertFalse(write.acquired());
+        assertFalse(read.acquired());
+
+        bp.transactionComplete(t1);
+        write.join(5000);
+        assertTrue(write.acquired());
+        Thread.sleep(TIMEOUT);
+        assertFalse(read.acquired());
+
+        bp.transactionComplete(t2);
+        read.join(5000);
+        assertTrue(read.acquired());
+        bp.transactionComplete(t3);
+    }
+
+    /**
+     * A transaction upgrading its shared lock goes ahead of the
+     * transactions waiting for the page.
+     */
+    @Test public void upgradeGoesFirst() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        bp.getPage(t1, p0, Permissions.READ_ONLY);
+        TestUtil.LockGrabber write = grab(t2, p0, Permissions.READ_WRITE);
+        bp.getPage(t1, p0, Permissions.READ_WRITE);
+        assertFalse(write.acquired());
+        bp.transactionComplete(t1);
+        write.join(5000);
+        assertTrue(write.acquired());
+        bp.transactionComplete(t2);
+    }
+
+    /**
+     * A transaction may wait for a lock for as long as it takes, as long as
+     * it is not deadlocked.
+     */
+    @Test public void longWait() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        bp.getPage(t1, p0, Permissions.READ_WRITE);
+        TestUtil.LockGrabber write = grab(t2, p0, Permissions.READ_WRITE);
+        Thread.sleep(3500);
+        assertNull(write.getError());
+        bp.transactionComplete(t1);
+        write.join(5000);
+        assertTrue(write.acquired());
+        bp.transactionComplete(t2);
+    }
+
+    /**
+     * Of two deadlocked transactions, only the younger one is aborted, as
+     * soon as the deadlock forms; the older one gets its lock once the
+     * younger one is gone.
+     */
+    @Test public void deadlockVictim() throws Exception {
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        bp.getPage(older, p0, Permissions.READ_ONLY);
+        bp.getPage(younger, p1, Permissions.READ_ONLY);
+        TestUtil.LockGrabber olderWrite = grab(older, p1, Permissions.READ_WRITE);
+        assertFalse(olderWrite.acquired());
+
+        long start = System.currentTimeMillis();
+        try {
+            bp.getPage(younger, p0, Permissions.READ_WRITE);
+            fail("expected TransactionAbortedException");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertFalse(olderWrite.acquired());
+        assertNull(olderWrite.getError());
+
+        bp.transactionComplete(younger, false);
+        olderWrite.join(5000);
+        assertTrue(olderWrite.acquired());
+        bp.transactionComplete(older);
+    }
+
+    /**
+     * holdsLock follows the locks a transaction takes and releases.
+     */
+    @Test public void holdsLock() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        bp.getPage(t1, p0, Permissions.READ_ONLY);
+        bp.getPage(t1, p1, Permissions.READ_WRITE);
+        assertTrue(bp.holdsLock(t1, p0));
+        assertTrue(bp.holdsLock(t1, p1));
+        assertFalse(bp.holdsLock(t2, p0));
+
+        bp.unsafeReleasePage(t1, p0);
+        assertFalse(bp.holdsLock(t1, p0));
+        assertTrue(bp.holdsLock(t1, p1));
+
+        bp.getPage(t2, p0, Permissions.READ_WRITE);
+        bp.transactionComplete(t1);
+        assertFalse(bp.holdsLock(t1, p1));
+        assertTrue(bp.holdsLock(t2, p0));
+        bp.transactionComplete(t2);
+        assertFalse(bp.holdsLock(t2, p0));
+    }
+
+    /**
+     * Threads sharing one page and taking turns on another never hold the
+     * second one together, whether their locks take the fast path or wait.
+     */
+    @Test public void exclusion() throws Exception {
+        AtomicInteger inside = new AtomicInteger();
+        AtomicInteger overlaps = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> errors = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    for (int j = 0; j < 200; j++) {
+                        TransactionId tid = new TransactionId();
+                        bp.getPage(tid, p0, Permissions.READ_ONLY);
+                        bp.getPage(tid, p1, Permissions.READ_WRITE);
+                        if (inside.incrementAndGet() != 1) {
+                            overlaps.incrementAndGet();
+                        }
+                        Thread.yield();
+                        inside.decrementAndGet();
+                        bp.transactionComplete(tid);
+                    }
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join(30000);
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(0, overlaps.get());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockQueueTest.class);
+    }
+}
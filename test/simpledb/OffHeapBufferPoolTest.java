@@ -0,0 +1,105 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class OffHeapBufferPoolTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 4;
+
+    private List<List<Integer>> tuples;
+    private HeapFile hf;
+
+    /**
+     * Set up a table several times the size of an off-heap buffer pool.
+     */
+    @Before public void createTable() throws Exception {
+        tuples = new ArrayList<>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 5000, null, tuples);
+        assertTrue(hf.numPages() > 2 * POOL_PAGES);
+        Database.resetBufferPool(new BufferPool(POOL_PAGES, true));
+    }
+
+    /**
+     * Scans that cycle every frame through several pages return every tuple.
+     */
+    @Test public void scan() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            TransactionId tid = new TransactionId();
+            SystemTestUtil.matchTuples(hf, tid, tuples);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /**
+     * A page and its tuples stay readable after the page is evicted and its
+     * frame holds another page.
+     */
+    @Test public void evictedPageStaysReadable() throws Exception {
+        TransactionId tid = new TransactionId();
+        BufferPool bp = Database.getBufferPool();
+        HeapPageId first = new HeapPageId(hf.getId(), 0);
+        HeapPage page = (HeapPage) bp.getPage(tid, first, Permissions.READ_ONLY);
+        Iterator<Tuple> it = page.iterator();
+        Tuple t0 = it.next();
+
+        for (int i = 1; i < hf.numPages(); i++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+        assertFalse(bp.isResident(first));
+
+        assertEquals(tuples.get(0), SystemTestUtil.tupleToList(t0));
+        for (int i = 1; it.hasNext(); i++) {
+            assertEquals(tuples.get(i), SystemTestUtil.tupleToList(it.next()));
+        }
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Aborted inserts are rolled back from disk, committed ones survive a
+     * new pool.
+     */
+    @Test public void abortAndCommit() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 10; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{-1, i}));
+        }
+        Database.getBufferPool().transactionComplete(tid, false);
+        tid = new TransactionId();
+        SystemTestUtil.matchTuples(hf, tid, tuples);
+
+        for (int i = 0; i < 10; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{-1, i}));
+            tuples.add(Arrays.asList(-1, i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.resetBufferPool(new BufferPool(POOL_PAGES, true));
+        tid = new TransactionId();
+        SystemTestUtil.matchTuples(hf, tid, tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OffHeapBufferPoolTest.class);
+    }
+}
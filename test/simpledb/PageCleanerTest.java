@@ -0,0 +1,144 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class PageCleanerTest extends SimpleDbTestBase {
+    private static final int TABLE_PAGES = 8;
+
+    private List<List<Integer>> tuples;
+    private HeapFile hf;
+    private BufferPool bp;
+
+    /**
+     * Set up a table of TABLE_PAGES full pages.
+     */
+    @Before public void createTable() throws Exception {
+        tuples = new ArrayList<>();
+        int perPage = BufferPool.getPageSize() * 8 / (8 * 8 + 1);
+        hf = SystemTestUtil.createRandomHeapFile(2, TABLE_PAGES * perPage, null, tuples);
+        assertEquals(TABLE_PAGES, hf.numPages());
+    }
+
+    @After public void stopCleaner() {
+        if (bp != null) {
+            bp.stopPageCleaner();
+        }
+    }
+
+    /**
+     * Deletes the first tuple of each of the first n pages of the table on
+     * behalf of tid, leaving the pages dirty.
+     *
+     * @return the deleted tuples
+     */
+    private List<List<Integer>> deleteFromPages(TransactionId tid, int n) throws Exception {
+        List<List<Integer>> deleted = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), i);
+            Tuple t = ((HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE)).iterator().next();
+            bp.deleteTuple(tid, t);
+            deleted.add(SystemTestUtil.tupleToList(t));
+        }
+        return deleted;
+    }
+
+    /**
+     * A transaction can dirty more pages than the pool holds; aborting it
+     * undoes the changes that were written early.
+     */
+    @Test public void stealAndAbort() throws Exception {
+        bp = Database.resetBufferPool(new BufferPool(4));
+        bp.startPageCleaner(0.25);
+        Transaction t = new Transaction();
+        t.start();
+        deleteFromPages(t.getId(), TABLE_PAGES);
+        assertTrue(bp.getCleanedPageCount() >= TABLE_PAGES - 4);
+        t.abort();
+
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(hf, tid, tuples);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Changes written early and changes written at commit both survive a
+     * new pool.
+     */
+    @Test public void stealAndCommit() throws Exception {
+        bp = Database.resetBufferPool(new BufferPool(4));
+        bp.startPageCleaner(0.25);
+        Transaction t = new Transaction();
+        t.start();
+        for (List<Integer> tuple : deleteFromPages(t.getId(), TABLE_PAGES)) {
+            tuples.remove(tuple);
+        }
+        t.commit();
+
+        bp.stopPageCleaner();
+        bp = Database.resetBufferPool(new BufferPool(4));
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * The cleaner writes dirty pages in the background until the requested
+     * fraction of the pool is clean.
+     */
+    @Test public void cleansAheadOfEviction() throws Exception {
+        bp = Database.resetBufferPool(new BufferPool(TABLE_PAGES));
+        Transaction t = new Transaction();
+        t.start();
+        deleteFromPages(t.getId(), TABLE_PAGES);
+        assertEquals(0, bp.getCleanedPageCount());
+
+        bp.startPageCleaner(0.5);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (bp.getCleanedPageCount() < TABLE_PAGES / 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(TABLE_PAGES / 2, bp.getCleanedPageCount());
+        t.commit();
+    }
+
+    /**
+     * Pages of a transaction that never logged its BEGIN record cannot be
+     * rolled back from the log, so they are never written early.
+     */
+    @Test public void unloggedPagesStay() throws Exception {
+        bp = Database.resetBufferPool(new BufferPool(4));
+        bp.startPageCleaner(1.0);
+        TransactionId tid = new TransactionId();
+        try {
+            deleteFromPages(tid, TABLE_PAGES);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        assertEquals(0, bp.getCleanedPageCount());
+        bp.transactionComplete(tid, false);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCleanerTest.class);
+    }
+}
@@ -0,0 +1,171 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class PagePinTest extends SimpleDbTestBase {
+    private static final int TABLE_PAGES = 4;
+
+    private HeapFile hf;
+    private BufferPool bp;
+    private TransactionId tid;
+
+    /**
+     * Set up a table of TABLE_PAGES full pages and a pool of two pages.
+     */
+    @Before public void createTable() throws Exception {
+        int perPage = BufferPool.getPageSize() * 8 / (8 * 8 + 1);
+        hf = SystemTestUtil.createRandomHeapFile(2, TABLE_PAGES * perPage, null, new ArrayList<>());
+        bp = Database.resetBufferPool(new BufferPool(2));
+        tid = new TransactionId();
+    }
+
+    private HeapPageId pid(int pgNo) {
+        return new HeapPageId(hf.getId(), pgNo);
+    }
+
+    private void readAll() throws Exception {
+        for (int i = 0; i < TABLE_PAGES; i++) {
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        }
+    }
+
+    /**
+     * A pinned page stays in the pool until it is unpinned.
+     */
+    @Test public void pinnedPageStays() throws Exception {
+        Page page = bp.getPinnedPage(tid, pid(0), Permissions.READ_ONLY);
+        assertEquals(1, bp.getPinCount(pid(0)));
+        readAll();
+        readAll();
+        assertTrue(bp.isResident(pid(0)));
+        assertSame(page, bp.getPage(tid, pid(0), Permissions.READ_ONLY));
+
+        bp.unpinPage(pid(0));
+        assertEquals(0, bp.getPinCount(pid(0)));
+        for (int i = TABLE_PAGES - 1; i > 0; i--) {
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        }
+        assertFalse(bp.isResident(pid(0)));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A pool full of pinned pages cannot read another page.
+     */
+    @Test public void allPinned() throws Exception {
+        bp.getPinnedPage(tid, pid(0), Permissions.READ_ONLY);
+        bp.getPinnedPage(tid, pid(1), Permissions.READ_ONLY);
+        try {
+            bp.getPage(tid, pid(2), Permissions.READ_ONLY);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        bp.unpinPage(pid(1));
+        bp.getPage(tid, pid(2), Permissions.READ_ONLY);
+        bp.unpinPage(pid(0));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A page that was evicted before it could be pinned is not pinned, and
+     * unpinning a page that is not pinned is an error.
+     */
+    @Test public void pinEvictedPage() throws Exception {
+        Page page = bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        readAll();
+        assertFalse(bp.isResident(pid(0)));
+        assertFalse(bp.pinPage(page));
+        assertEquals(0, bp.getPinCount(pid(0)));
+        try {
+            bp.unpinPage(pid(0));
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * An exclusive latch keeps out shared latches until it is released,
+     * and only a pinned page can be latched.
+     */
+    @Test public void latches() throws Exception {
+        try {
+            bp.latchPage(pid(0), Permissions.READ_ONLY);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        bp.getPinnedPage(tid, pid(0), Permissions.READ_ONLY);
+        bp.latchPage(pid(0), Permissions.READ_ONLY);
+        bp.latchPage(pid(0), Permissions.READ_ONLY);
+        bp.unlatchPage(pid(0), Permissions.READ_ONLY);
+        bp.unlatchPage(pid(0), Permissions.READ_ONLY);
+
+        bp.latchPage(pid(0), Permissions.READ_WRITE);
+        CountDownLatch latched = new CountDownLatch(1);
+        Thread reader = new Thread(() -> {
+            bp.latchPage(pid(0), Permissions.READ_ONLY);
+            latched.countDown();
+            bp.unlatchPage(pid(0), Permissions.READ_ONLY);
+        });
+        reader.start();
+        assertFalse(latched.await(100, TimeUnit.MILLISECONDS));
+        bp.unlatchPage(pid(0), Permissions.READ_WRITE);
+        assertTrue(latched.await(5, TimeUnit.SECONDS));
+        reader.join();
+        bp.unpinPage(pid(0));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A scan pins the page it is reading, and releases the pin when it
+     * moves on or is closed.
+     */
+    @Test public void scanPinsCurrentPage() throws Exception {
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        assertTrue(it.hasNext());
+        it.next();
+        assertEquals(1, bp.getPinCount(pid(0)));
+        while (it.hasNext()) {
+            it.next();
+        }
+        for (int i = 0; i < TABLE_PAGES; i++) {
+            assertEquals(0, bp.getPinCount(pid(i)));
+        }
+
+        it.rewind();
+        it.next();
+        assertEquals(1, bp.getPinCount(pid(0)));
+        it.close();
+        assertEquals(0, bp.getPinCount(pid(0)));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PagePinTest.class);
+    }
+}
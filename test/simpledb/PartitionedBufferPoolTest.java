@@ -0,0 +1,137 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class PartitionedBufferPoolTest extends SimpleDbTestBase {
+    private static final int TABLE_PAGES = 16;
+    private static final int PARTITIONS = 4;
+
+    private List<List<Integer>> tuples;
+    private HeapFile hf;
+    private BufferPool bp;
+
+    /**
+     * Set up a table of TABLE_PAGES full pages and a partitioned pool that
+     * holds all of them.
+     */
+    @Before public void createTable() throws Exception {
+        tuples = new ArrayList<>();
+        int perPage = BufferPool.getPageSize() * 8 / (8 * 8 + 1);
+        hf = SystemTestUtil.createRandomHeapFile(2, TABLE_PAGES * perPage, null, tuples);
+        bp = Database.resetBufferPool(new BufferPool(2 * TABLE_PAGES, BufferPool.Eviction.FIFO, false, PARTITIONS));
+    }
+
+    private void readAll(TransactionId tid) throws Exception {
+        for (int i = 0; i < TABLE_PAGES; i++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+    }
+
+    /**
+     * The pages are spread over the partitions, which split the pool's
+     * capacity and add up to its statistics.
+     */
+    @Test public void partitions() throws Exception {
+        assertEquals(PARTITIONS, bp.getPartitionCount());
+        TransactionId tid = new TransactionId();
+        readAll(tid);
+        readAll(tid);
+
+        List<BufferPoolStats> partitions = bp.partitionStats();
+        assertEquals(PARTITIONS, partitions.size());
+        int capacity = 0;
+        int resident = 0;
+        int used = 0;
+        for (BufferPoolStats p : partitions) {
+            capacity += p.getCapacity();
+            resident += p.getResidentPages();
+            assertTrue(p.getResidentPages() <= p.getCapacity());
+            if (p.getResidentPages() > 0) {
+                used++;
+            }
+        }
+        assertEquals(2 * TABLE_PAGES, capacity);
+        assertTrue("pages all went to " + used + " partition(s)", used > 1);
+
+        BufferPoolStats stats = bp.stats();
+        assertEquals(2 * TABLE_PAGES, stats.getCapacity());
+        assertEquals(resident, stats.getResidentPages());
+        assertEquals(2 * TABLE_PAGES, stats.getHits() + stats.getMisses());
+        assertEquals(stats.getMisses(), bp.getMissCount());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Changes go to the pages' partitions and are written when their
+     * transaction commits, or undone when it aborts.
+     */
+    @Test public void commitAndAbort() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < 2 * PARTITIONS; i++) {
+            Tuple tuple = Utility.getHeapTuple(new int[]{i, -i});
+            bp.insertTuple(t.getId(), hf.getId(), tuple);
+            tuples.add(SystemTestUtil.tupleToList(tuple));
+        }
+        t.commit();
+        assertEquals(0, bp.stats().getDirtyPages());
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        t = new Transaction();
+        t.start();
+        for (int i = 0; i < PARTITIONS; i++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), i);
+            Tuple tuple = ((HeapPage) bp.getPage(t.getId(), pid, Permissions.READ_WRITE)).iterator().next();
+            bp.deleteTuple(t.getId(), tuple);
+        }
+        t.abort();
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Resizing a partitioned pool resizes its partitions.
+     */
+    @Test public void resize() throws Exception {
+        TransactionId tid = new TransactionId();
+        readAll(tid);
+        bp.resize(PARTITIONS * 2);
+        assertEquals(PARTITIONS * 2, bp.getNumPages());
+        for (BufferPoolStats p : bp.partitionStats()) {
+            assertEquals(2, p.getCapacity());
+            assertTrue(p.getResidentPages() <= 2);
+        }
+        readAll(tid);
+        bp.transactionComplete(tid);
+
+        try {
+            bp.resize(PARTITIONS - 1);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PartitionedBufferPoolTest.class);
+    }
+}
@@ -0,0 +1,155 @@
+package simpledb;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class PaxHeapPageTest extends SimpleDbTestBase {
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+    }
+
+    /**
+     * Writes EXAMPLE_VALUES to a text file in dir.
+     */
+    private static File exampleText(File dir) throws Exception {
+        File txt = new File(dir, "example.txt");
+        txt.deleteOnExit();
+        try (PrintWriter w = new PrintWriter(txt)) {
+            for (int[] tuple : HeapPageReadTest.EXAMPLE_VALUES) {
+                w.println(tuple[0] + "," + tuple[1]);
+            }
+        }
+        return txt;
+    }
+
+    private static File tempDir() {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "pax" + SystemTestUtil.getUUID());
+        assertTrue(dir.mkdir());
+        dir.deleteOnExit();
+        return dir;
+    }
+
+    /**
+     * The encoder lays columns out in minipages, and PaxHeapPage reads the
+     * same tuples a row-layout page holds.
+     */
+    @Test public void readColumnar() throws Exception {
+        File dir = tempDir();
+        File dat = new File(dir, "example.dat");
+        dat.deleteOnExit();
+        HeapFileEncoder.convert(exampleText(dir), dat, BufferPool.getPageSize(), 2,
+                new Type[]{Type.INT_TYPE, Type.INT_TYPE}, ',', false, true);
+        byte[] data = TestUtil.readFileBytes(dat.getAbsolutePath());
+
+        // the first column of the first two slots is stored contiguously
+        int numSlots = BufferPool.getPageSize() * 8 / (8 * 8 + 1);
+        int headerSize = (numSlots + 7) / 8;
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES[0][0], buf.getInt(headerSize));
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES[1][0], buf.getInt(headerSize + 4));
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES[0][1], buf.getInt(headerSize + numSlots * 4));
+
+        HeapPage page = new PaxHeapPage(pid, data);
+        HeapPage rows = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        assertEquals(rows.getNumEmptySlots(), page.getNumEmptySlots());
+        Iterator<Tuple> expected = rows.iterator();
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); ) {
+            Tuple t = it.next();
+            Tuple e = expected.next();
+            assertEquals(e.getField(0), t.getField(0));
+            assertEquals(e.getField(1), t.getField(1));
+        }
+        assertFalse(expected.hasNext());
+    }
+
+    /**
+     * Inserted and deleted tuples survive getPageData().
+     */
+    @Test public void roundTrip() throws Exception {
+        HeapPage page = new PaxHeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < 10; i++) {
+            page.insertTuple(Utility.getHeapTuple(new int[]{i, 100 + i}));
+        }
+        page.deleteTuple(page.iterator().next());
+
+        HeapPage copy = new PaxHeapPage(pid, page.getPageData());
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+        assertFalse(copy.isSlotUsed(0));
+        int count = 0;
+        for (Iterator<Tuple> it = copy.iterator(); it.hasNext(); count++) {
+            Tuple t = it.next();
+            int slot = t.getRecordId().getTupleNumber();
+            assertEquals(new IntField(slot), t.getField(0));
+            assertEquals(new IntField(100 + slot), t.getField(1));
+        }
+        assertEquals(9, count);
+    }
+
+    /**
+     * A table declared pax in the schema is scanned and aggregated like any
+     * other.
+     */
+    @Test public void aggregateColumnarTable() throws Exception {
+        File dir = tempDir();
+        File dat = new File(dir, "example.dat");
+        File schema = new File(dir, "schema.txt");
+        dat.deleteOnExit();
+        schema.deleteOnExit();
+        HeapFileEncoder.convert(exampleText(dir), dat, BufferPool.getPageSize(), 2,
+                new Type[]{Type.INT_TYPE, Type.INT_TYPE}, ',', false, true);
+        try (PrintWriter w = new PrintWriter(schema)) {
+            w.println("example (a int, b int) pax");
+        }
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        int tableId = Database.getCatalog().getTableId("example");
+        assertTrue(((HeapFile) Database.getCatalog().getDatabaseFile(tableId)).isColumnar());
+
+        TransactionId tid = new TransactionId();
+        Aggregate sum = new Aggregate(new SeqScan(tid, tableId), 1, Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+        int expected = 0;
+        for (int[] tuple : HeapPageReadTest.EXAMPLE_VALUES) {
+            expected += tuple[1];
+        }
+        List<List<Integer>> result = new ArrayList<>();
+        result.add(Arrays.asList(expected));
+        SystemTestUtil.matchTuples(sum, result);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxHeapPageTest.class);
+    }
+}
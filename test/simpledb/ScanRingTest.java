@@ -0,0 +1,104 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class ScanRingTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 16;
+
+    private HeapFile hot;
+    private HeapFile scanned;
+    private List<List<Integer>> scannedTuples;
+    private BufferPool bp;
+
+    /**
+     * Set up a small table, a table much larger than the pool, and a FIFO
+     * pool, which on its own lets a scan push everything else out.
+     */
+    @Before public void createTables() throws Exception {
+        int perPage = BufferPool.getPageSize() * 8 / (8 * 8 + 1);
+        hot = SystemTestUtil.createRandomHeapFile(2, 3 * perPage, null, new ArrayList<>());
+        scannedTuples = new ArrayList<>();
+        scanned = SystemTestUtil.createRandomHeapFile(2, 40 * perPage, null, scannedTuples);
+        bp = Database.resetBufferPool(new BufferPool(POOL_PAGES));
+    }
+
+    @After public void resetRingSize() {
+        BufferPool.setScanRingPages(BufferPool.DEFAULT_SCAN_RING_PAGES);
+    }
+
+    private void readHotPages(TransactionId tid) throws Exception {
+        for (int i = 0; i < hot.numPages(); i++) {
+            bp.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+        }
+    }
+
+    private int residentPages(HeapFile f) {
+        int resident = 0;
+        for (int i = 0; i < f.numPages(); i++) {
+            if (bp.isResident(new HeapPageId(f.getId(), i))) {
+                resident++;
+            }
+        }
+        return resident;
+    }
+
+    /**
+     * A scan of a large table recycles a few pages and returns every tuple,
+     * and the pages read before it stay in the pool.
+     */
+    @Test public void largeScanStaysInRing() throws Exception {
+        TransactionId tid = new TransactionId();
+        readHotPages(tid);
+        SystemTestUtil.matchTuples(scanned, tid, scannedTuples);
+        assertEquals(hot.numPages(), residentPages(hot));
+        assertTrue(residentPages(scanned) <= POOL_PAGES / 8);
+        bp.transactionComplete(tid);
+    }
+
+    @Test public void ringsCanBeTurnedOff() throws Exception {
+        BufferPool.setScanRingPages(0);
+        TransactionId tid = new TransactionId();
+        readHotPages(tid);
+        SystemTestUtil.matchTuples(scanned, tid, scannedTuples);
+        assertEquals(0, residentPages(hot));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Scans of tables that fit comfortably in the pool keep their pages.
+     */
+    @Test public void smallScanUsesPool() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hot.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+        }
+        it.close();
+        assertEquals(hot.numPages(), residentPages(hot));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ScanRingTest.class);
+    }
+}
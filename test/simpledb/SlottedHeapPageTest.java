@@ -0,0 +1,167 @@
+package simpledb;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+    private HeapPageId pid;
+    private TupleDesc td;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() {
+        this.pid = new HeapPageId(-1, -1);
+        this.td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.VARCHAR_TYPE},
+                new String[]{"id", "name"}, new int[]{0, 20});
+        Database.getCatalog().addTable(new SkeletonFile(-1, td), SystemTestUtil.getUUID());
+    }
+
+    private Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN));
+        return t;
+    }
+
+    /**
+     * Tables with VARCHAR fields get slotted pages.
+     */
+    @Test public void createChoosesLayout() throws Exception {
+        assertTrue(td.isVariableLength());
+        assertEquals(24 + 4, td.getSize());
+        HeapPage page = HeapPage.create(pid, HeapPage.createEmptyPageData());
+        assertTrue(page instanceof SlottedHeapPage);
+        assertFalse(page.iterator().hasNext());
+    }
+
+    /**
+     * Short values pack many more tuples on a page than fixed-size strings.
+     */
+    @Test public void density() throws Exception {
+        HeapPage page = HeapPage.create(pid, HeapPage.createEmptyPageData());
+        int n = 0;
+        while (page.hasRoomFor(tuple(n, "name" + n))) {
+            page.insertTuple(tuple(n, "name" + n));
+            n++;
+        }
+        // a fixed-size (INT, STRING) tuple takes 136 bytes: 30 per 4KB page
+        int fixed = BufferPool.getPageSize() * 8 / ((4 + Type.STRING_LEN + 4) * 8 + 1);
+        assertTrue(n > 5 * fixed);
+        try {
+            page.insertTuple(tuple(n, "name" + n));
+            throw new Exception("page should be full; expected DbException");
+        } catch (DbException e) {
+            // explicitly ignored
+        }
+    }
+
+    /**
+     * Tuples survive getPageData() and keep their slots.
+     */
+    @Test public void roundTrip() throws Exception {
+        HeapPage page = HeapPage.create(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < 10; i++) {
+            page.insertTuple(tuple(i, "v" + i));
+        }
+        Iterator<Tuple> it = page.iterator();
+        it.next();
+        Tuple second = it.next();
+        page.deleteTuple(second);
+        page.insertTuple(tuple(100, "a value longer than twenty characters"));
+
+        HeapPage copy = HeapPage.create(pid, page.getPageData());
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+        assertFalse(copy.isSlotUsed(10));
+        int count = 0;
+        for (Iterator<Tuple> i = copy.iterator(); i.hasNext(); count++) {
+            Tuple t = i.next();
+            int id = ((IntField) t.getField(0)).getValue();
+            String name = ((StringField) t.getField(1)).getValue();
+            if (id == 100) {
+                // reused the deleted slot; cut off at the declared length
+                assertEquals(1, t.getRecordId().getTupleNumber());
+                assertEquals("a value longer than ", name);
+            } else {
+                assertEquals(id, t.getRecordId().getTupleNumber());
+                assertEquals("v" + id, name);
+            }
+        }
+        assertEquals(10, count);
+
+        // the copy can be updated in turn
+        copy.deleteTuple(copy.iterator().next());
+        assertFalse(HeapPage.create(pid, copy.getPageData()).isSlotUsed(0));
+    }
+
+    /**
+     * HeapFileEncoder writes slotted pages for tables with VARCHAR fields,
+     * and the catalog reads varchar(n) types.
+     */
+    @Test public void encodeAndLoadSchema() throws Exception {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "slotted" + SystemTestUtil.getUUID());
+        assertTrue(dir.mkdir());
+        dir.deleteOnExit();
+        File txt = new File(dir, "people.txt");
+        File dat = new File(dir, "people.dat");
+        File schema = new File(dir, "schema.txt");
+        txt.deleteOnExit();
+        dat.deleteOnExit();
+        schema.deleteOnExit();
+        try (PrintWriter w = new PrintWriter(txt)) {
+            for (int i = 0; i < 1000; i++) {
+                w.println(i + ",person" + i);
+            }
+        }
+        try (PrintWriter w = new PrintWriter(schema)) {
+            w.println("people (id int, name varchar(32))");
+        }
+        HeapFileEncoder.convert(txt, dat, BufferPool.getPageSize(), 2,
+                new Type[]{Type.INT_TYPE, Type.VARCHAR_TYPE}, ',');
+
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        int tableId = Database.getCatalog().getTableId("people");
+        TupleDesc loaded = Database.getCatalog().getTupleDesc(tableId);
+        assertEquals(Type.VARCHAR_TYPE, loaded.getFieldType(1));
+        assertEquals(32, loaded.getFieldMaxLength(1));
+
+        HeapFile hf = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
+        assertTrue(hf.numPages() < 1000 / 30);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals("person" + ((IntField) t.getField(0)).getValue(), t.getField(1).toString());
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1000, count);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
@@ -0,0 +1,129 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class SnapshotTest extends SimpleDbTestBase {
+    private List<List<Integer>> tuples;
+    private HeapFile hf;
+    private BufferPool bp;
+    private HeapPageId p0;
+
+    /**
+     * Set up a table of two pages.
+     */
+    @Before public void createTable() throws Exception {
+        tuples = new ArrayList<>();
+        int perPage = BufferPool.getPageSize() * 8 / (8 * 8 + 1);
+        hf = SystemTestUtil.createRandomHeapFile(2, perPage + perPage / 2, null, tuples);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        p0 = new HeapPageId(hf.getId(), 0);
+    }
+
+    private void deleteFirst(TransactionId tid, HeapPageId pid) throws Exception {
+        HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+        bp.deleteTuple(tid, page.iterator().next());
+    }
+
+    /**
+     * A reader neither waits for a writer's lock nor holds it up, and sees
+     * the page as it was committed.
+     */
+    @Test public void noLocks() throws Exception {
+        TransactionId writer = new TransactionId();
+        deleteFirst(writer, p0);
+        int free = ((HeapPage) bp.getPage(writer, p0, Permissions.READ_ONLY)).getNumEmptySlots();
+
+        Transaction reader = new Transaction(true);
+        reader.start();
+        HeapPage seen = (HeapPage) bp.getPage(reader.getId(), p0, Permissions.READ_ONLY);
+        assertEquals(free - 1, seen.getNumEmptySlots());
+        assertFalse(bp.holdsLock(reader.getId(), p0));
+        SystemTestUtil.matchTuples(hf, reader.getId(), tuples);
+
+        bp.transactionComplete(writer);
+        reader.commit();
+    }
+
+    /**
+     * A reader keeps seeing the state as of its start while writers commit
+     * around it; a reader that starts later sees their changes.
+     */
+    @Test public void consistent() throws Exception {
+        Transaction reader = new Transaction(true);
+        reader.start();
+        List<List<Integer>> before = new ArrayList<>(tuples);
+
+        Transaction writer = new Transaction();
+        writer.start();
+        Tuple inserted = Utility.getHeapTuple(new int[]{7, 7});
+        bp.insertTuple(writer.getId(), hf.getId(), inserted);
+        HeapPage page = (HeapPage) bp.getPage(writer.getId(), p0, Permissions.READ_WRITE);
+        Tuple deleted = page.iterator().next();
+        bp.deleteTuple(writer.getId(), deleted);
+        writer.commit();
+        tuples.add(SystemTestUtil.tupleToList(inserted));
+        tuples.remove(SystemTestUtil.tupleToList(deleted));
+
+        SystemTestUtil.matchTuples(hf, reader.getId(), before);
+        Transaction later = new Transaction(true);
+        later.start();
+        SystemTestUtil.matchTuples(hf, later.getId(), tuples);
+
+        // a second commit replaces the version the first reader reads again
+        writer = new Transaction();
+        writer.start();
+        deleteFirst(writer.getId(), p0);
+        writer.commit();
+        SystemTestUtil.matchTuples(hf, reader.getId(), before);
+        SystemTestUtil.matchTuples(hf, later.getId(), tuples);
+        reader.commit();
+        later.commit();
+    }
+
+    /**
+     * A read-only transaction may not write.
+     */
+    @Test public void readOnly() throws Exception {
+        Transaction reader = new Transaction(true);
+        reader.start();
+        try {
+            bp.getPage(reader.getId(), p0, Permissions.READ_WRITE);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        try {
+            bp.insertTuple(reader.getId(), hf.getId(), Utility.getHeapTuple(new int[]{1, 2}));
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        reader.commit();
+        assertFalse(bp.readsSnapshot(reader.getId()));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SnapshotTest.class);
+    }
+}
@@ -0,0 +1,85 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import simpledb.transaction.TransactionId;
+
+/**
+ * Measures the throughput of the LockManager with a single stripe, which
+ * sends every request through one latch, against the default number of
+ * stripes, as the number of threads grows. Each transaction takes shared
+ * locks on a few pages of a small hot set that all the threads read, and
+ * exclusive locks on pages of its own thread's, and then completes.
+ * <p>
+ * The gain from striping needs as many cores as threads; on a single core
+ * the threads take turns whatever the lock table does.
+ * <p>
+ * Not a unit test; run it after <tt>ant testcompile</tt> with
+ * <pre>
+ * java -cp bin/src:bin/test:lib/* simpledb.storage.LockManagerBenchmark [transactions]
+ * </pre>
+ */
+public class LockManagerBenchmark {
+    private static final int HOT_PAGES = 16;
+    private static final int PRIVATE_PAGES = 1000;
+    private static final int SHARED_PER_TRANSACTION = 8;
+    private static final int EXCLUSIVE_PER_TRANSACTION = 2;
+    private static final int[] THREADS = {1, 2, 4, 8};
+
+    public static void main(String[] args) throws Exception {
+        int transactions = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        System.out.printf("%d transactions per run, %d cores%n",
+                transactions, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-8s %8s %14s%n", "stripes", "threads", "locks/ms");
+        for (int stripes : new int[]{1, LockManager.DEFAULT_STRIPES}) {
+            for (int threads : THREADS) {
+                // warm up, then measure
+                run(new LockManager(stripes), threads, transactions / 4);
+                long locks = (long) transactions * (SHARED_PER_TRANSACTION + EXCLUSIVE_PER_TRANSACTION);
+                long ms = run(new LockManager(stripes), threads, transactions);
+                System.out.printf("%-8d %8d %14.0f%n", stripes, threads, (double) locks / Math.max(1, ms));
+            }
+        }
+    }
+
+    /**
+     * Runs the transactions split among the threads.
+     *
+     * @return the elapsed time in ms
+     */
+    private static long run(LockManager lockManager, int threads, int transactions) throws Exception {
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            workers.add(new Thread(() -> {
+                Random random = new Random(thread);
+                try {
+                    for (int i = 0; i < transactions / threads; i++) {
+                        TransactionId tid = new TransactionId();
+                        for (int j = 0; j < SHARED_PER_TRANSACTION; j++) {
+                            lockManager.acquireLock(new HeapPageId(0, random.nextInt(HOT_PAGES)),
+                                    tid, PageLock.SHARE);
+                        }
+                        for (int j = 0; j < EXCLUSIVE_PER_TRANSACTION; j++) {
+                            int pgNo = random.nextInt(PRIVATE_PAGES);
+                            lockManager.acquireLock(new HeapPageId(1 + thread, pgNo), tid, PageLock.EXCLUSIVE);
+                        }
+                        lockManager.completeTransaction(tid);
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        long start = System.nanoTime();
+        for (Thread w : workers) {
+            w.start();
+        }
+        for (Thread w : workers) {
+            w.join();
+        }
+        return (System.nanoTime() - start) / 1000000;
+    }
+}
@@ -0,0 +1,72 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Compares the hit rates of the BufferPool's eviction policies on a mixed
+ * workload: skewed point reads of a small OLTP table, interleaved with
+ * sequential scans of a table several times the size of the pool. Every
+ * policy replays the same sequence of page requests.
+ * <p>
+ * Not a unit test; run it after <tt>ant testcompile</tt> with
+ * <pre>
+ * java -cp bin/src:bin/test:lib/* simpledb.systemtest.EvictionBenchmark [poolPages]
+ * </pre>
+ */
+public class EvictionBenchmark {
+    private static final int OLTP_PAGES = 50;
+    private static final int HOT_PAGES = 10;
+    private static final int SCAN_PAGES = 400;
+    private static final int ROUNDS = 20;
+    /** OLTP page reads per round */
+    private static final int READS = 2000;
+    /** OLTP page reads between two pages of a scan */
+    private static final int READS_PER_SCANNED_PAGE = 5;
+
+    public static void main(String[] args) throws Exception {
+        int poolPages = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int perPage = BufferPool.getPageSize() * 8 / (8 * 8 + 1);
+        HeapFile oltp = SystemTestUtil.createRandomHeapFile(2, OLTP_PAGES * perPage, null, new ArrayList<>());
+        HeapFile scanned = SystemTestUtil.createRandomHeapFile(2, SCAN_PAGES * perPage, null, new ArrayList<>());
+
+        System.out.printf("%d pool pages, %d OLTP pages (%d hot), %d scanned pages%n",
+                poolPages, OLTP_PAGES, HOT_PAGES, SCAN_PAGES);
+        System.out.printf("%-6s %10s %10s %10s%n", "policy", "OLTP hits", "all hits", "ms");
+        for (BufferPool.Eviction eviction : BufferPool.Eviction.values()) {
+            BufferPool bp = Database.resetBufferPool(new BufferPool(poolPages, eviction));
+            Random random = new Random(42);
+            long oltpHits = 0;
+            int scanPage = 0;
+            long start = System.nanoTime();
+            for (int round = 0; round < ROUNDS; round++) {
+                TransactionId tid = new TransactionId();
+                for (int i = 0; i < READS; i++) {
+                    // 80% of the reads go to the hot pages
+                    int pgNo = random.nextInt(5) < 4 ? random.nextInt(HOT_PAGES) : random.nextInt(OLTP_PAGES);
+                    HeapPageId pid = new HeapPageId(oltp.getId(), pgNo);
+                    if (bp.isResident(pid)) {
+                        oltpHits++;
+                    }
+                    bp.getPage(tid, pid, Permissions.READ_ONLY);
+                    if (i % READS_PER_SCANNED_PAGE == 0) {
+                        bp.getPage(tid, new HeapPageId(scanned.getId(), scanPage), Permissions.READ_ONLY);
+                        scanPage = (scanPage + 1) % SCAN_PAGES;
+                    }
+                }
+                bp.transactionComplete(tid);
+            }
+            long ms = (System.nanoTime() - start) / 1000000;
+            double all = (double) bp.getHitCount() / (bp.getHitCount() + bp.getMissCount());
+            System.out.printf("%-6s %9.1f%% %9.1f%% %10d%n", eviction,
+                    100.0 * oltpHits / (ROUNDS * READS), 100.0 * all, ms);
+        }
+    }
+}